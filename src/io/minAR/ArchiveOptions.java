@@ -0,0 +1,289 @@
+package io.minAR;
+
+import io.minAR.MinAR.FLAG;
+import io.minAR.util.Codec;
+import io.minAR.util.Metrics;
+import io.minAR.util.Streams;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.concurrent.Executor;
+
+/**
+ * The options of a single archive operation, the per-call counterpart of the flags toggled through {@link MinAR#toggleFlags(FLAG...)}.
+ * Options are immutable, every {@code with...} method returns a changed copy; hence one instance can be shared by any number of operations running at once.
+ * <p>
+ * Archives carry a header describing how they were written, so only {@link FLAG}{@code .KEY_IS_FILE} or {@link FLAG}{@code .KEY_IS_STRING}
+ * matter while extracting them. The remaining flags are needed only to extract archives written before the header was introduced.
+ * @author nikhil
+ * @since 0.0.2
+ */
+public final class ArchiveOptions {
+
+    private final EnumSet<FLAG> flags;
+    private final int buffer_size;
+    private final int threads;
+    private final int solid_block_size;
+    private final int split_size;
+    /** The number of reader, compressor and cipher threads of the pipeline */
+    private final int[] pipeline;
+    private final Codec codec;
+    /** The metrics the operations record their files in, null if each records them in a fresh instance */
+    private final Metrics metrics;
+    /** The globs of the files archived, and of the files and directories left out */
+    private final String[] include, exclude;
+    private final int scan_threads;
+    /** The milliseconds an asynchronous operation may take, 0 if it may take any time */
+    private final long timeout;
+    /** The executor the threads of an operation run on, null if they run on a pool shared by every operation */
+    private final Executor executor;
+
+    /** The default size of the solid blocks, 1 MB */
+    public static final int DEFAULT_SOLID_BLOCK_SIZE = 1 << 20;
+    /** The default size of the parts large files are split into, 16 MB */
+    public static final int DEFAULT_SPLIT_SIZE = 16 << 20;
+    /** The default number of reader, compressor and cipher threads of the pipeline; a compressor per processor */
+    private static final int[] DEFAULT_PIPELINE = {1, Runtime.getRuntime().availableProcessors(), 1};
+
+    /**
+     * Creates the options with the given flags set, and the default buffer size and thread count
+     * @param flags the flags to be set
+     */
+    public ArchiveOptions(FLAG... flags){
+        this(toSet(flags), Streams.DEFAULT_BUFFER_SIZE, 1, DEFAULT_SOLID_BLOCK_SIZE, DEFAULT_SPLIT_SIZE, DEFAULT_PIPELINE, Codec.XZ, null, new String[0], new String[0], 1, 0, null);
+    }
+
+    private ArchiveOptions(EnumSet<FLAG> flags, int buffer_size, int threads, int solid_block_size, int split_size, int[] pipeline, Codec codec, Metrics metrics,
+                           String[] include, String[] exclude, int scan_threads, long timeout, Executor executor){
+        if(buffer_size <= 0) throw new IllegalArgumentException("Buffer size must be positive: " + buffer_size);
+        if(threads <= 0) throw new IllegalArgumentException("Thread count must be positive: " + threads);
+        if(solid_block_size <= 0) throw new IllegalArgumentException("Solid block size must be positive: " + solid_block_size);
+        if(split_size <= 0) throw new IllegalArgumentException("Split size must be positive: " + split_size);
+        for(int count : pipeline) if(count <= 0) throw new IllegalArgumentException("Thread counts must be positive: " + Arrays.toString(pipeline));
+        if(codec == null) throw new NullPointerException("codec");
+        if(scan_threads <= 0) throw new IllegalArgumentException("Thread count must be positive: " + scan_threads);
+        if(timeout < 0) throw new IllegalArgumentException("Timeout must not be negative: " + timeout);
+        this.flags = flags;
+        this.buffer_size = buffer_size;
+        this.threads = threads;
+        this.solid_block_size = solid_block_size;
+        this.split_size = split_size;
+        this.pipeline = pipeline;
+        this.codec = codec;
+        this.metrics = metrics;
+        this.include = include;
+        this.exclude = exclude;
+        this.scan_threads = scan_threads;
+        this.timeout = timeout;
+        this.executor = executor;
+    }
+
+    private static EnumSet<FLAG> toSet(FLAG... flags){
+        EnumSet<FLAG> ret = EnumSet.noneOf(FLAG.class);
+        ret.addAll(Arrays.asList(flags));
+        return ret;
+    }
+
+    /**
+     * @param flag the flag to be checked
+     * @return whether the flag is set or not
+     */
+    public boolean isFlagged(FLAG flag){
+        return flags.contains(flag);
+    }
+
+    /**
+     * @param flags the flags to be set
+     * @return a copy of these options, with the flags set as well
+     */
+    public ArchiveOptions withFlags(FLAG... flags){
+        EnumSet<FLAG> set = EnumSet.copyOf(this.flags);
+        set.addAll(Arrays.asList(flags));
+        return new ArchiveOptions(set, buffer_size, threads, solid_block_size, split_size, pipeline, codec, metrics, include, exclude, scan_threads, timeout, executor);
+    }
+
+    /**
+     * @param flags the flags to be cleared
+     * @return a copy of these options, with the flags cleared
+     */
+    public ArchiveOptions withoutFlags(FLAG... flags){
+        EnumSet<FLAG> set = EnumSet.copyOf(this.flags);
+        set.removeAll(Arrays.asList(flags));
+        return new ArchiveOptions(set, buffer_size, threads, solid_block_size, split_size, pipeline, codec, metrics, include, exclude, scan_threads, timeout, executor);
+    }
+
+    /**
+     * @param buffer_size the size of the buffers used by streamed archives, in bytes
+     * @return a copy of these options, with the buffer size changed
+     * @see MinAR#setBufferSize(int)
+     */
+    public ArchiveOptions withBufferSize(int buffer_size){
+        return new ArchiveOptions(flags, buffer_size, threads, solid_block_size, split_size, pipeline, codec, metrics, include, exclude, scan_threads, timeout, executor);
+    }
+
+    /**
+     * @param threads the number of threads the files are compressed and written on
+     * @return a copy of these options, with the thread count changed
+     * @see MinAR#setThreads(int)
+     */
+    public ArchiveOptions withThreads(int threads){
+        return new ArchiveOptions(flags, buffer_size, threads, solid_block_size, split_size, pipeline, codec, metrics, include, exclude, scan_threads, timeout, executor);
+    }
+
+    /**
+     * @param solid_block_size the most bytes of small files compressed together, in bytes
+     * @return a copy of these options, with the solid block size changed
+     * @see MinAR#setSolidBlockSize(int)
+     */
+    public ArchiveOptions withSolidBlockSize(int solid_block_size){
+        return new ArchiveOptions(flags, buffer_size, threads, solid_block_size, split_size, pipeline, codec, metrics, include, exclude, scan_threads, timeout, executor);
+    }
+
+    /**
+     * @param split_size the size of the parts large files are split into, in bytes
+     * @return a copy of these options, with the split size changed
+     * @see MinAR#setSplitSize(int)
+     */
+    public ArchiveOptions withSplitSize(int split_size){
+        return new ArchiveOptions(flags, buffer_size, threads, solid_block_size, split_size, pipeline, codec, metrics, include, exclude, scan_threads, timeout, executor);
+    }
+
+    /**
+     * @param readers the number of threads the files are read on
+     * @param compressors the number of threads the files are compressed on
+     * @param ciphers the number of threads the files are encrypted on
+     * @return a copy of these options, with the thread counts of the pipeline changed
+     * @see MinAR#setPipeline(int, int, int)
+     */
+    public ArchiveOptions withPipeline(int readers, int compressors, int ciphers){
+        return new ArchiveOptions(flags, buffer_size, threads, solid_block_size, split_size, new int[]{readers, compressors, ciphers}, codec, metrics, include, exclude, scan_threads, timeout, executor);
+    }
+
+    /**
+     * @param codec the codec the contents of the files are compressed with, if {@link FLAG}{@code .COMPRESSED} is set
+     * @return a copy of these options, with the codec changed
+     * @see MinAR#setCodec(Codec)
+     */
+    public ArchiveOptions withCodec(Codec codec){
+        return new ArchiveOptions(flags, buffer_size, threads, solid_block_size, split_size, pipeline, codec, metrics, include, exclude, scan_threads, timeout, executor);
+    }
+
+    /**
+     * @param metrics the metrics the files written or extracted, and the time spent on them, are recorded in; null records them in a fresh instance per operation
+     * @return a copy of these options, with the metrics changed
+     * @see MinAR#setMetrics(Metrics)
+     */
+    public ArchiveOptions withMetrics(Metrics metrics){
+        return new ArchiveOptions(flags, buffer_size, threads, solid_block_size, split_size, pipeline, codec, metrics, include, exclude, scan_threads, timeout, executor);
+    }
+
+    /**
+     * @param globs the globs of the files archived, every other file is left out; none archives every file
+     * @return a copy of these options, with the globs changed
+     * @see MinAR#setInclude(String...)
+     */
+    public ArchiveOptions withInclude(String... globs){
+        return new ArchiveOptions(flags, buffer_size, threads, solid_block_size, split_size, pipeline, codec, metrics, globs.clone(), exclude, scan_threads, timeout, executor);
+    }
+
+    /**
+     * @param globs the globs of the files and directories left out
+     * @return a copy of these options, with the globs changed
+     * @see MinAR#setExclude(String...)
+     */
+    public ArchiveOptions withExclude(String... globs){
+        return new ArchiveOptions(flags, buffer_size, threads, solid_block_size, split_size, pipeline, codec, metrics, include, globs.clone(), scan_threads, timeout, executor);
+    }
+
+    /**
+     * @param scan_threads the number of threads the directory is scanned on
+     * @return a copy of these options, with the thread count of the scan changed
+     * @see MinAR#setScanThreads(int)
+     */
+    public ArchiveOptions withScanThreads(int scan_threads){
+        return new ArchiveOptions(flags, buffer_size, threads, solid_block_size, split_size, pipeline, codec, metrics, include, exclude, scan_threads, timeout, executor);
+    }
+
+    /**
+     * @param timeout the milliseconds an asynchronous operation may take from when it is submitted, 0 lets it take any time.
+     *                Once they pass, it stops before the next file and is reported as timed out
+     * @return a copy of these options, with the timeout changed
+     * @see MinAR#outputArchiveAsync(String, String, ArchiveOptions, java.util.concurrent.Executor)
+     */
+    public ArchiveOptions withTimeout(long timeout){
+        return new ArchiveOptions(flags, buffer_size, threads, solid_block_size, split_size, pipeline, codec, metrics, include, exclude, scan_threads, timeout, executor);
+    }
+
+    /**
+     * @param executor the executor the threads of an operation run on, such as the threads compressing, extracting or verifying its files,
+     *                 scanning its directory or running the stages of its pipeline; null runs them on a pool of daemon threads shared by every operation.
+     *                 The executor may be bounded, at most as many threads as the options ask for are taken from it at once
+     * @return a copy of these options, with the executor changed
+     * @see io.minAR.util.Workers
+     */
+    public ArchiveOptions withExecutor(Executor executor){
+        return new ArchiveOptions(flags, buffer_size, threads, solid_block_size, split_size, pipeline, codec, metrics, include, exclude, scan_threads, timeout, executor);
+    }
+
+    public int getBufferSize() {
+        return buffer_size;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getSolidBlockSize() {
+        return solid_block_size;
+    }
+
+    public int getSplitSize() {
+        return split_size;
+    }
+
+    public int getReaderThreads() {
+        return pipeline[0];
+    }
+
+    public int getCompressorThreads() {
+        return pipeline[1];
+    }
+
+    public int getCipherThreads() {
+        return pipeline[2];
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public String[] getInclude() {
+        return include.clone();
+    }
+
+    public String[] getExclude() {
+        return exclude.clone();
+    }
+
+    public int getScanThreads() {
+        return scan_threads;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    @Override
+    public String toString() {
+        return "[flags:" + flags + " buffer_size:" + buffer_size + " threads:" + threads + " solid_block_size:" + solid_block_size + " split_size:" + split_size + " pipeline:" + Arrays.toString(pipeline) + " codec:" + codec.getName()
+                + " include:" + Arrays.toString(include) + " exclude:" + Arrays.toString(exclude) + " scan_threads:" + scan_threads + " timeout:" + timeout + (executor != null ? " executor:" + executor : "") + "]";
+    }
+}
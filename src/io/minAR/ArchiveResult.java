@@ -0,0 +1,94 @@
+package io.minAR;
+
+import io.minAR.util.Metrics;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of an archive operation run asynchronously, along with every error met while it ran
+ * @author nikhil
+ * @see MinAR#outputArchiveAsync(String, String, ArchiveOptions, java.util.concurrent.Executor)
+ * @since 0.0.2
+ */
+public final class ArchiveResult {
+
+    public enum Status {
+        /** The operation ran to its end, and met no error */
+        SUCCEEDED,
+        /** The operation met an error, it may have gone on past it */
+        FAILED,
+        /** The operation stopped before its next file, as its {@link ArchiveOptions#getTimeout()} passed */
+        TIMED_OUT,
+        /** The operation stopped before its next file, as its future was cancelled; the future completes at once, without waiting for the result */
+        CANCELLED
+    }
+
+    private final Status status;
+    private final Path archive;
+    private final List<Exception> errors;
+    private final Metrics metrics;
+    private final long nanos;
+
+    ArchiveResult(Status status, Path archive, List<Exception> errors, Metrics metrics, long nanos){
+        this.status = status;
+        this.archive = archive;
+        this.errors = Collections.unmodifiableList(new ArrayList<>(errors));
+        this.metrics = metrics;
+        this.nanos = nanos;
+    }
+
+    public Status getStatus(){
+        return status;
+    }
+
+    /**
+     * @return whether the operation ran to its end, and met no error
+     */
+    public boolean isSuccessful(){
+        return status == Status.SUCCEEDED;
+    }
+
+    /**
+     * @return the first error met, null if none was
+     */
+    public Exception getError(){
+        return errors.isEmpty() ? null : errors.get(0);
+    }
+
+    /**
+     * @return the errors met, in the order met; an {@link java.io.InterruptedIOException} among them if the operation was stopped
+     */
+    public List<Exception> getErrors(){
+        return errors;
+    }
+
+    /**
+     * @return the archive written, updated or extracted
+     */
+    public Path getArchive(){
+        return archive;
+    }
+
+    /**
+     * @return the metrics the files handled were recorded in
+     */
+    public Metrics getMetrics(){
+        return metrics;
+    }
+
+    /**
+     * @return the milliseconds from when the operation was submitted till it stopped
+     */
+    public long getMillis(){
+        return nanos / 1000000;
+    }
+
+    @Override
+    public String toString() {
+        Exception error = getError();
+        return "[status:" + status + " archive:" + archive + " ms:" + getMillis() + " errors:" + errors.size() + (error != null ? " error:" + error : "") + "]";
+    }
+}
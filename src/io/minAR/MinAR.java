@@ -1,29 +1,64 @@
 package io.minAR;
 
 import io.minAR.core.Analyzer;
+import io.minAR.core.ArchiveReader;
 import io.minAR.core.Extractor;
+import io.minAR.core.Scanner;
+import io.minAR.core.Verification;
+import io.minAR.util.Codec;
 import io.minAR.util.Crypt;
+import io.minAR.util.Metrics;
 
 import javax.crypto.SecretKey;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 
 public class MinAR {
 
     /**
      * An enum of the various flags that can be set.
-     * These flags affect the finally generated archive, and the exact setting is required in order to extract them.
+     * These flags affect the finally generated archive, which records them in its header; while extracting, only the 'KEY_' flags are required.
+     * Archives written before the header was introduced require the exact setting in order to extract them.
      * If not flags are set, a normal archive will be generated which is not encrypted and whose contents are not compressed.
      */
     public enum FLAG{
         COMPRESSED,
         ENCRYPTED,
         KEY_IS_STRING,
-        KEY_IS_FILE;
+        KEY_IS_FILE,
+        /** The contents of the files are streamed into the archive, instead of being held in memory till the archive is written */
+        STREAMED,
+        /** Files with identical contents are stored once, only applicable along with {@link #STREAMED} */
+        DEDUPLICATED,
+        /** While updating an archive, files are compared by checksum too, not only by size and modification time; while verifying one, the contents of its files are checked too */
+        COMPARE_CONTENTS,
+        /** Small files are compressed together in solid blocks, only applicable along with {@link #STREAMED} */
+        SOLID,
+        /** Files that do not shrink are stored, rather than compressed, only applicable along with {@link #STREAMED} */
+        ADAPTIVE,
+        /** Large files are split into parts compressed in parallel, only applicable along with {@link #STREAMED} */
+        SPLIT,
+        /** Files are read, compressed and encrypted in stages running at once, only applicable along with {@link #STREAMED} */
+        PIPELINED;
     }
 
-    private static ArrayList<FLAG> activated_flags = new ArrayList<>();
+    /** The options toggled globally, used by the methods not given any {@link ArchiveOptions} */
+    private static volatile ArchiveOptions global_options = new ArchiveOptions();
 
     // Defaults
 
@@ -39,9 +74,112 @@ public class MinAR {
      * Toggle the given flag i.e, deactivate the flag if activated, activate the flag if deactivated.
      * @param flag the flag to be toggled.
      */
-    public static void toggleFlag(FLAG flag){
-        if(activated_flags.contains(flag)) activated_flags.remove(flag);
-        else activated_flags.add(flag);
+    public static synchronized void toggleFlag(FLAG flag){
+        if(global_options.isFlagged(flag)) global_options = global_options.withoutFlags(flag);
+        else global_options = global_options.withFlags(flag);
+    }
+
+    /**
+     * Set the size of the buffers used by streamed archives, the memory held per entry is bounded by it.
+     * @param size the size of the buffers, in bytes
+     * @see FLAG#STREAMED
+     */
+    public static synchronized void setBufferSize(int size){
+        global_options = global_options.withBufferSize(size);
+    }
+
+    /**
+     * Set the number of threads the files are compressed on, while creating an archive, and written on while extracting one.
+     * The order of the entries in the archive does not depend on it.
+     * @param count the number of threads, 1 (the default) handles the files one after another
+     */
+    public static synchronized void setThreads(int count){
+        global_options = global_options.withThreads(count);
+    }
+
+    /**
+     * Set the most bytes of small files compressed together in a solid block, larger blocks compress better,
+     * but reading a single file out of one decompresses the block up to that file.
+     * @param size the size of the blocks, in bytes
+     * @see FLAG#SOLID
+     */
+    public static synchronized void setSolidBlockSize(int size){
+        global_options = global_options.withSolidBlockSize(size);
+    }
+
+    /**
+     * Set the size of the parts large files are split into, the parts of a single file are compressed and extracted on all threads at once.
+     * Smaller parts spread better across threads, larger ones compress better.
+     * @param size the size of the parts, in bytes
+     * @see FLAG#SPLIT
+     */
+    public static synchronized void setSplitSize(int size){
+        global_options = global_options.withSplitSize(size);
+    }
+
+    /**
+     * Set the number of threads of every stage of a pipelined archive, the slowest stage bounds the time taken; by default one reader,
+     * a compressor per processor, and one cipher.
+     * @param readers the number of threads the files are read on
+     * @param compressors the number of threads the files are compressed on
+     * @param ciphers the number of threads the files are encrypted on
+     * @see FLAG#PIPELINED
+     */
+    public static synchronized void setPipeline(int readers, int compressors, int ciphers){
+        global_options = global_options.withPipeline(readers, compressors, ciphers);
+    }
+
+    /**
+     * Set the metrics every operation records the files written or extracted in, along with the time spent in every stage; such that the progress
+     * and the bottlenecks of the operations can be watched, by {@link Metrics.Listener}s or through JMX once {@link Metrics#register(String) registered}.
+     * @param metrics the metrics, null records them in a fresh instance per operation
+     */
+    public static synchronized void setMetrics(Metrics metrics){
+        global_options = global_options.withMetrics(metrics);
+    }
+
+    /**
+     * Set the globs of the files archived, every other file is left out; directories are always archived.
+     * A glob with no '/' matches the names of the files, such as {@code *.java}; any other matches their paths relative to the directory archived, such as {@code src/**}.
+     * @param globs the globs, none (the default) archives every file
+     */
+    public static synchronized void setInclude(String... globs){
+        global_options = global_options.withInclude(globs);
+    }
+
+    /**
+     * Set the globs of the files and directories left out of the archive, everything beneath a directory left out is left out too.
+     * They are matched as those of {@link #setInclude(String...)}, and take precedence over them.
+     * @param globs the globs, none (the default) leaves nothing out
+     */
+    public static synchronized void setExclude(String... globs){
+        global_options = global_options.withExclude(globs);
+    }
+
+    /**
+     * Set the number of threads the directory is scanned on, every subdirectory is then listed by a task of its own;
+     * worth it on file systems where listing a directory or reading the attributes of a file is slow, such as network ones.
+     * The order of the entries in the archive does not depend on it.
+     * @param count the number of threads, 1 (the default) walks the directory on the calling thread
+     */
+    public static synchronized void setScanThreads(int count){
+        global_options = global_options.withScanThreads(count);
+    }
+
+    /**
+     * Set the codec the contents of the files are compressed with, while {@link FLAG}{@code .COMPRESSED} is set.
+     * The codec is recorded in the archive, {@link Codec#XZ} (the default) compresses best, {@link Codec#DEFLATE} is several times faster.
+     * @param codec the codec
+     */
+    public static synchronized void setCodec(Codec codec){
+        global_options = global_options.withCodec(codec);
+    }
+
+    /**
+     * @return the options toggled globally, through {@link #toggleFlags(FLAG...)}, {@link #setBufferSize(int)}, {@link #setThreads(int)}, {@link #setSolidBlockSize(int)}, {@link #setSplitSize(int)}, {@link #setPipeline(int, int, int)}, {@link #setMetrics(Metrics)}, {@link #setInclude(String...)}, {@link #setExclude(String...)}, {@link #setScanThreads(int)} and {@link #setCodec(Codec)}
+     */
+    public static ArchiveOptions getOptions(){
+        return global_options;
     }
 
     /**
@@ -51,13 +189,154 @@ public class MinAR {
      * No flags are mandatory for this operation. But, {@link FLAG}.COMPRESSED and {@link FLAG}.ENCRYPTED are recommended.
      */
     public static void outputArchive(String directory, String archive_file){
+        outputArchive(directory, archive_file, global_options);
+    }
+
+    /**
+     * Create an archive of the directory specified output it to the file, with the given options instead of the global flags.
+     * @param directory the directory whose contents are to be  archived
+     * @param archive_file the path of the file.
+     * @param options the options of this operation alone
+     */
+    public static void outputArchive(String directory, String archive_file, ArchiveOptions options){
+        output(directory, archive_file, options, () -> false);
+    }
+
+    /**
+     * Create an archive of the directory on the executor, see {@link #outputArchive(String, String, ArchiveOptions)}.
+     * <p>
+     * The operation stops before its next file once the future is cancelled, or once {@link ArchiveOptions#getTimeout()} passes since it was submitted;
+     * the archive is then deleted, as is an archive left unfinished by an error. A cancelled future completes at once, the operation stops on its own shortly after.
+     * Errors do not complete the future exceptionally, they are reported in the {@link ArchiveResult}, as are the metrics of the files archived.
+     * @param directory the directory whose contents are to be  archived
+     * @param archive_file the path of the file, without the extension
+     * @param options the options of this operation alone
+     * @param executor runs the operation, such as one starting a virtual thread per task. The operation blocks on the file system;
+     *                 the threads the options ask for run on the executor too, unless {@link ArchiveOptions#getExecutor()} is set, see {@link ArchiveOptions#withExecutor(Executor)}
+     * @return the future of the outcome
+     */
+    public static CompletableFuture<ArchiveResult> outputArchiveAsync(String directory, String archive_file, ArchiveOptions options, Executor executor){
+        Path ar_file = Paths.get(archive_file + ".mar");
+        return submit(ar_file, options, executor, (job_options, cancelled) -> {
+            List<Exception> ret = output(directory, archive_file, job_options, cancelled).getErrors();
+            // An archive finished just as the operation was cancelled is deleted too, the operation is reported as stopped
+            if(ret.isEmpty() && cancelled.getAsBoolean()) ret.add(new InterruptedIOException("Cancelled, the archive is deleted"));
+            if(!ret.isEmpty()) Files.deleteIfExists(ar_file);
+            return ret;
+        });
+    }
+
+    private static Analyzer output(String directory, String archive_file, ArchiveOptions options, BooleanSupplier cancelled){
         File dir = new File(directory);
         if(!dir.exists()) throw new RuntimeException(new FileNotFoundException(directory + " does not exist"));
-        boolean cmpr = isFlagged(FLAG.COMPRESSED);
-        boolean encr = isFlagged(FLAG.ENCRYPTED);
-        Analyzer analyzer = new Analyzer(dir, cmpr, encr);
-        analyzer.convertToDataTree();
+        boolean cmpr = options.isFlagged(FLAG.COMPRESSED);
+        boolean encr = options.isFlagged(FLAG.ENCRYPTED);
+        boolean strm = options.isFlagged(FLAG.STREAMED);
+        Analyzer analyzer = new Analyzer(scanner(dir, options, cancelled), cmpr, encr, strm);
+        if(cmpr) analyzer.setCodec(options.getCodec());
+        analyzer.setBufferSize(options.getBufferSize());
+        analyzer.setThreads(options.getThreads());
+        analyzer.setExecutor(options.getExecutor());
+        if(options.getMetrics() != null) analyzer.setMetrics(options.getMetrics());
+        analyzer.setDeduplicated(options.isFlagged(FLAG.DEDUPLICATED));
+        analyzer.setAdaptive(options.isFlagged(FLAG.ADAPTIVE));
+        if(options.isFlagged(FLAG.SOLID)) analyzer.setSolidBlockSize(options.getSolidBlockSize());
+        if(options.isFlagged(FLAG.SPLIT)) analyzer.setSplitSize(options.getSplitSize());
+        if(options.isFlagged(FLAG.PIPELINED)) analyzer.setPipeline(options.getReaderThreads(), options.getCompressorThreads(), options.getCipherThreads());
+        analyzer.setCancelled(cancelled);
+        if(!strm) analyzer.convertToDataTree();
         analyzer.OUTPUT_minAR(archive_file);
+        return analyzer;
+    }
+
+    /**
+     * Creates the scanner of the directory, with the globs, the thread count and the executor of the options
+     * @param cancelled whether to stop scanning, the directory of an archive that is not streamed is scanned before it is written
+     */
+    private static Scanner scanner(File dir, ArchiveOptions options, BooleanSupplier cancelled){
+        Scanner ret = new Scanner(dir);
+        ret.setInclude(options.getInclude());
+        ret.setExclude(options.getExclude());
+        ret.setThreads(options.getScanThreads());
+        ret.setExecutor(options.getExecutor());
+        ret.setStopped(cancelled);
+        return ret;
+    }
+
+    /**
+     * Update the archive with the current contents of the directory, such that only the files changed since are compressed.
+     * The entries of the unchanged files are copied out of the archive as they are, new and modified files are compressed as usual.
+     * The archive must have been created with {@link FLAG}{@code .STREAMED}, it is compressed and encrypted the same way as before,
+     * with the same key; the flags set only affect the key, {@link FLAG}{@code .DEDUPLICATED}, {@link FLAG}{@code .SOLID}, {@link FLAG}{@code .ADAPTIVE}, {@link FLAG}{@code .SPLIT}, {@link FLAG}{@code .PIPELINED} and {@link FLAG}{@code .COMPARE_CONTENTS}.
+     * Files that were part of a solid block are always compressed again, as they cannot be copied out of it on their own.
+     * The updated archive is written beside the original, and replaces it only once it is complete.
+     * @param directory the directory whose contents are to be archived
+     * @param archive the archive to be updated
+     * @param key the key, as described in {@link #extractArchive(String, String, String)}, null if the archive is not encrypted
+     * @param options the options of this operation alone
+     */
+    public static void updateArchive(String directory, String archive, String key, ArchiveOptions options){
+        update(directory, archive, key, options, () -> false);
+    }
+
+    /**
+     * Update the archive on the executor, see {@link #updateArchive(String, String, String, ArchiveOptions)};
+     * it is cancelled, timed out and reported as described in {@link #outputArchiveAsync(String, String, ArchiveOptions, Executor)}.
+     * The archive is replaced only if the update runs to its end, else it is left as it is.
+     * @return the future of the outcome
+     */
+    public static CompletableFuture<ArchiveResult> updateArchiveAsync(String directory, String archive, String key, ArchiveOptions options, Executor executor){
+        return submit(Paths.get(archive), options, executor, (job_options, cancelled) -> update(directory, archive, key, job_options, cancelled).getErrors());
+    }
+
+    /**
+     * @throws RuntimeException if the archive cannot be read, or the update met an error; the archive is then left as it is
+     */
+    private static Analyzer update(String directory, String archive, String key, ArchiveOptions options, BooleanSupplier cancelled){
+        File dir = new File(directory);
+        if(!dir.exists()) throw new RuntimeException(new FileNotFoundException(directory + " does not exist"));
+        Path ar_file = Paths.get(archive);
+        String updated = archive.replaceAll("\\.mar$", "") + "_update";
+        Path updated_file = Paths.get(updated + ".mar");
+        SecretKey real_key = resolveKey(key, options);
+        try {
+            try (ArchiveReader base = new ArchiveReader(ar_file, options.isFlagged(FLAG.COMPRESSED), real_key)){
+                Analyzer analyzer = new Analyzer(scanner(dir, options, cancelled), base.isCompressed(), base.isEncrypted(), true);
+                // The level of the codec given may differ from that of the archive, its format may not
+                analyzer.setCodec(options.getCodec().getId() == base.getCodec().getId() ? options.getCodec() : base.getCodec());
+                analyzer.setBufferSize(options.getBufferSize());
+                analyzer.setThreads(options.getThreads());
+                analyzer.setExecutor(options.getExecutor());
+                if(options.getMetrics() != null) analyzer.setMetrics(options.getMetrics());
+                analyzer.setDeduplicated(options.isFlagged(FLAG.DEDUPLICATED));
+                analyzer.setAdaptive(options.isFlagged(FLAG.ADAPTIVE));
+                if(options.isFlagged(FLAG.SOLID)) analyzer.setSolidBlockSize(options.getSolidBlockSize());
+                if(options.isFlagged(FLAG.SPLIT)) analyzer.setSplitSize(options.getSplitSize());
+                if(options.isFlagged(FLAG.PIPELINED)) analyzer.setPipeline(options.getReaderThreads(), options.getCompressorThreads(), options.getCipherThreads());
+                analyzer.setBase(base, options.isFlagged(FLAG.COMPARE_CONTENTS));
+                analyzer.setCancelled(cancelled);
+                analyzer.OUTPUT_minAR(updated);
+                List<Exception> errors = analyzer.getErrors();
+                if(!errors.isEmpty()) {
+                    Files.deleteIfExists(updated_file);
+                    throw new IOException("Could not update " + archive, errors.get(0));
+                }
+                // Opening the updated archive fails if it was not finished, the original is then left as it is
+                new ArchiveReader(updated_file, real_key).close();
+                Files.move(updated_file, ar_file, StandardCopyOption.REPLACE_EXISTING);
+                return analyzer;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Update the archive, with the global flags
+     * @see #updateArchive(String, String, String, ArchiveOptions)
+     */
+    public static void updateArchive(String directory, String archive, String key){
+        updateArchive(directory, archive, key, global_options);
     }
 
     /**
@@ -66,7 +345,7 @@ public class MinAR {
      * @return whether the flag is activated or not
      */
     public static boolean isFlagged(FLAG flag){
-        return activated_flags.contains(flag);
+        return global_options.isFlagged(flag);
     }
 
     /**
@@ -98,14 +377,160 @@ public class MinAR {
      *            </table>
      */
     public static void extractArchive(String archive, String directory, String key){
+        extractArchive(archive, directory, key, global_options);
+    }
+
+    /**
+     * Extract the archive into the specified directory, with the given options instead of the global flags.
+     * @param archive the archive to be extracted
+     * @param directory the directory to contain the extracted contents
+     * @param key the key, as described in {@link #extractArchive(String, String, String)}
+     * @param options the options of this operation alone
+     */
+    public static void extractArchive(String archive, String directory, String key, ArchiveOptions options){
+        extract(archive, directory, key, options, () -> false);
+    }
+
+    /**
+     * Extract the archive on the executor, see {@link #extractArchive(String, String, String, ArchiveOptions)};
+     * it is cancelled, timed out and reported as described in {@link #outputArchiveAsync(String, String, ArchiveOptions, Executor)}.
+     * The files extracted before it stops are left as they are.
+     * @return the future of the outcome
+     */
+    public static CompletableFuture<ArchiveResult> extractArchiveAsync(String archive, String directory, String key, ArchiveOptions options, Executor executor){
+        return submit(Paths.get(archive), options, executor, (job_options, cancelled) -> extract(archive, directory, key, job_options, cancelled).getErrors());
+    }
+
+    private static Extractor extract(String archive, String directory, String key, ArchiveOptions options, BooleanSupplier cancelled){
         Extractor extractor = new Extractor(directory, archive);
+        SecretKey real_key = resolveKey(key, options);
+        extractor.setBufferSize(options.getBufferSize());
+        extractor.setThreads(options.getThreads());
+        extractor.setExecutor(options.getExecutor());
+        if(options.getMetrics() != null) extractor.setMetrics(options.getMetrics());
+        extractor.setCancelled(cancelled);
+        extractor.analyze(options.isFlagged(FLAG.COMPRESSED), options.isFlagged(FLAG.ENCRYPTED), real_key);
+        // Nothing is extracted if the archive could not be read
+        if(extractor.getErrors().isEmpty()) extractor.generate();
+        return extractor;
+    }
+
+    /**
+     * Extract a single file out of the archive, without reading the rest of it.
+     * The archive must have been created with {@link FLAG}{@code .STREAMED}, the same flags as {@link #extractArchive(String, String, String)} apply.
+     * @param archive the archive containing the file
+     * @param path the internal path of the file, relative to the archived directory
+     * @param out the stream to contain the contents of the file, it is not closed
+     * @param key the key, as described in {@link #extractArchive(String, String, String)}
+     */
+    public static void extractEntry(String archive, String path, OutputStream out, String key){
+        extractEntry(archive, path, out, key, global_options);
+    }
+
+    /**
+     * Extract a single file out of the archive, with the given options instead of the global flags.
+     * @see #extractEntry(String, String, OutputStream, String)
+     */
+    public static void extractEntry(String archive, String path, OutputStream out, String key, ArchiveOptions options){
+        try {
+            if(!Extractor.extractEntry(Paths.get(archive), path, out, options.isFlagged(FLAG.COMPRESSED), resolveKey(key, options)))
+                throw new RuntimeException(new FileNotFoundException(path + " is not in " + archive));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Extract a single file out of an archive that is not encrypted
+     * @see #extractEntry(String, String, OutputStream, String)
+     */
+    public static void extractEntry(String archive, String path, OutputStream out){
+        extractEntry(archive, path, out, null);
+    }
+
+    /**
+     * Verify the archive without extracting it, reporting exactly which files are damaged.
+     * Every entry is checked against the checksum recorded for it as it is stored, on a thread per processor; hence without decrypting or decompressing it.
+     * With {@link FLAG}{@code .COMPARE_CONTENTS}, the contents of every file are extracted in memory and checked as well.
+     * The archive must have been created with {@link FLAG}{@code .STREAMED}, the same flags as {@link #extractArchive(String, String, String)} apply.
+     * @param archive the archive to be verified
+     * @param key the key, as described in {@link #extractArchive(String, String, String)}, null if the archive is not encrypted
+     * @param options the options of this operation alone, it runs on {@link ArchiveOptions#getThreads()} threads if more than 1
+     * @return the outcome, listing the paths of the files damaged
+     * @throws RuntimeException if the archive cannot be opened, or its index cannot be read
+     */
+    public static Verification verifyArchive(String archive, String key, ArchiveOptions options){
+        int threads = options.getThreads() > 1 ? options.getThreads() : Runtime.getRuntime().availableProcessors();
+        try (ArchiveReader reader = new ArchiveReader(Paths.get(archive), options.isFlagged(FLAG.COMPRESSED), resolveKey(key, options))){
+            return reader.verify(options.getExecutor(), threads, options.isFlagged(FLAG.COMPARE_CONTENTS));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Verify the archive, with the global flags
+     * @see #verifyArchive(String, String, ArchiveOptions)
+     */
+    public static Verification verifyArchive(String archive, String key){
+        return verifyArchive(archive, key, global_options);
+    }
+
+    /**
+     * An operation run by {@link #submit(Path, ArchiveOptions, Executor, Job)}
+     */
+    private interface Job {
+        /**
+         * @param options the options of the operation, recording its files in the metrics of the result
+         * @param cancelled whether the operation is to stop before its next file
+         * @return the errors met
+         */
+        List<Exception> run(ArchiveOptions options, BooleanSupplier cancelled) throws Exception;
+    }
+
+    /**
+     * Runs the operation on the executor, it is to stop once the future is done or the timeout of the options passes
+     * @param archive the archive the operation handles
+     * @return the future of the outcome, completed once the operation stops
+     */
+    private static CompletableFuture<ArchiveResult> submit(Path archive, ArchiveOptions options, Executor executor, Job job){
+        if(executor == null) throw new NullPointerException("executor");
+        Metrics metrics = options.getMetrics() != null ? options.getMetrics() : new Metrics();
+        // The threads of the operation run on the executor too, unless the options give one of their own
+        ArchiveOptions job_options = options.getExecutor() != null ? options.withMetrics(metrics) : options.withMetrics(metrics).withExecutor(executor);
+        long submitted = System.nanoTime(), timeout = TimeUnit.MILLISECONDS.toNanos(options.getTimeout());
+        CompletableFuture<ArchiveResult> ret = new CompletableFuture<>();
+        BooleanSupplier timed_out = () -> timeout > 0 && System.nanoTime() - submitted >= timeout;
+        BooleanSupplier cancelled = () -> ret.isDone() || timed_out.getAsBoolean();
+        try {
+            executor.execute(() -> {
+                List<Exception> errors = new ArrayList<>();
+                try {
+                    if(cancelled.getAsBoolean()) errors.add(new InterruptedIOException("Cancelled before it started"));
+                    else errors.addAll(job.run(job_options, cancelled));
+                } catch (Exception e) {
+                    errors.add(e);
+                } catch (Error e) {
+                    ret.completeExceptionally(e);
+                    throw e;
+                }
+                ArchiveResult.Status status = ret.isCancelled() ? ArchiveResult.Status.CANCELLED : errors.isEmpty() ? ArchiveResult.Status.SUCCEEDED
+                        : timed_out.getAsBoolean() ? ArchiveResult.Status.TIMED_OUT : ArchiveResult.Status.FAILED;
+                ret.complete(new ArchiveResult(status, archive, errors, metrics, System.nanoTime() - submitted));
+            });
+        } catch (RejectedExecutionException e) {
+            ret.complete(new ArchiveResult(ArchiveResult.Status.FAILED, archive, Collections.singletonList(e), metrics, System.nanoTime() - submitted));
+        }
+        return ret;
+    }
+
+    private static SecretKey resolveKey(String key, ArchiveOptions options){
         SecretKey real_key = null;
-        if(isFlagged(FLAG.ENCRYPTED)){
-            if(isFlagged(FLAG.KEY_IS_FILE)) real_key = Crypt.getKeyFromFile(key);
-            else if(isFlagged(FLAG.KEY_IS_STRING)) real_key = Crypt.stringAsKey(key);
-            else throw new IllegalStateException("Invalid Flags... 'KEY_' FLAG missing!");
+        if(options.isFlagged(FLAG.ENCRYPTED) || key != null){
+            if(options.isFlagged(FLAG.KEY_IS_FILE)) real_key = Crypt.getKeyFromFile(key);
+            else if(options.isFlagged(FLAG.KEY_IS_STRING)) real_key = Crypt.stringAsKey(key);
+            else if(options.isFlagged(FLAG.ENCRYPTED)) throw new IllegalStateException("Invalid Flags... 'KEY_' FLAG missing!");
         }
-        extractor.analyze(isFlagged(FLAG.COMPRESSED), isFlagged(FLAG.ENCRYPTED), real_key);
-        extractor.generate();
+        return real_key;
     }
 }
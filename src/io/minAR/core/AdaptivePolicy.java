@@ -0,0 +1,138 @@
+package io.minAR.core;
+
+import io.minAR.util.Codec;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Picks the codec of every file of an adaptive archive, such that data that does not shrink is not compressed.
+ * Files with the extension of a compressed format are stored as they are; else the first {@link #SAMPLE_SIZE} bytes are sampled,
+ * and the entropy of the sample decides between storing the file, compressing it with {@link Codec#DEFLATE}, or with the codec of the archive.
+ * The time spent compressing with each codec is kept, to estimate the time saved by the files that were not compressed with the codec of the archive.
+ * @author nikhil
+ * @since 0.0.2
+ */
+class AdaptivePolicy {
+
+    /** The number of bytes sampled at the start of every file */
+    static final int SAMPLE_SIZE = 4096;
+    /** Samples with at least as many bits of entropy per byte are stored as they are */
+    static final double STORE_ENTROPY = 7.5;
+    /** Samples with at least as many bits of entropy per byte are compressed with {@link Codec#DEFLATE}, if the codec of the archive is slower */
+    static final double CHEAP_ENTROPY = 6.5;
+    /** The extensions of formats that are compressed already */
+    static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "jpg", "jpeg", "png", "gif", "webp", "mp3", "aac", "ogg", "flac", "mp4", "m4a", "mkv", "avi", "mov", "webm",
+            "zip", "gz", "tgz", "xz", "bz2", "7z", "rar", "zst", "lz4", "jar", "war", "apk", "docx", "xlsx", "pptx", "mar"));
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    /** The codec of the archive */
+    private final Codec codec;
+    private long stored, stored_bytes, cheap, cheap_bytes;
+    /** The time spent compressing, and the number of bytes compressed, with the codec of the archive */
+    private long codec_nanos, codec_bytes;
+    /** The time spent on the files not compressed with the codec of the archive */
+    private long other_nanos;
+
+    AdaptivePolicy(Codec codec){
+        this.codec = codec;
+    }
+
+    /**
+     * Pick the codec of the file
+     * @param file the file
+     * @return the codec
+     */
+    Codec choose(File file) throws IOException {
+        if(codec.getId() == Codec.STORE.getId()) return codec;
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        if(dot >= 0 && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT))) return chosen(Codec.STORE, file);
+        double entropy = entropy(file);
+        if(entropy >= STORE_ENTROPY) return chosen(Codec.STORE, file);
+        if(entropy >= CHEAP_ENTROPY && codec.getId() != Codec.DEFLATE.getId()) return chosen(Codec.DEFLATE, file);
+        return codec;
+    }
+
+    private synchronized Codec chosen(Codec chosen, File file){
+        if(chosen == Codec.STORE) {
+            stored++;
+            stored_bytes += file.length();
+        } else {
+            cheap++;
+            cheap_bytes += file.length();
+        }
+        return chosen;
+    }
+
+    /**
+     * The Shannon entropy of the first {@link #SAMPLE_SIZE} bytes of the file
+     * @return the entropy, in bits per byte, from 0 to 8
+     */
+    static double entropy(File file) throws IOException {
+        byte[] sample = new byte[SAMPLE_SIZE];
+        int length = 0;
+        try (InputStream inputStream = new FileInputStream(file)){
+            for(int len = 0; len != -1 && length < sample.length; len = inputStream.read(sample, length, sample.length - length)){
+                length += len;
+            }
+        }
+        if(length == 0) return 0;
+        int[] counts = new int[256];
+        for(int x = 0; x < length; x++) counts[sample[x] & 0xff]++;
+        double ret = 0;
+        for(int count : counts){
+            if(count == 0) continue;
+            double p = (double) count / length;
+            ret -= p * Math.log(p) / Math.log(2);
+        }
+        return ret;
+    }
+
+    /**
+     * @return the CPU time of the calling thread, in nanoseconds; the elapsed time if not supported
+     */
+    static long cpuTime(){
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    /**
+     * Record the time spent writing a file
+     * @param used the codec the file was compressed with
+     * @param bytes the size of the file
+     * @param nanos the CPU time spent
+     */
+    synchronized void record(Codec used, long bytes, long nanos){
+        if(used == codec) {
+            codec_bytes += bytes;
+            codec_nanos += nanos;
+        } else {
+            other_nanos += nanos;
+        }
+    }
+
+    /**
+     * @return the estimated CPU time saved, in nanoseconds; the time the other files would have taken at the rate of the codec of the archive,
+     * less the time they did take
+     */
+    synchronized long estimateSaved(){
+        if(codec_bytes == 0) return 0;
+        return (long) ((double) codec_nanos / codec_bytes * (stored_bytes + cheap_bytes)) - other_nanos;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return stored + " files (" + stored_bytes + " bytes) stored, " + cheap + " files (" + cheap_bytes + " bytes) with " + Codec.DEFLATE.getName()
+                + " instead of " + codec.getName() + "; about " + estimateSaved() / 1000000 + " ms of CPU saved, at the rate " + codec.getName() + " compressed the rest";
+    }
+}
@@ -2,15 +2,37 @@ package io.minAR.core;
 
 import com.esotericsoftware.minlog.Log;
 import io.minAR.MinAR;
+import io.minAR.util.Buffers;
+import io.minAR.util.Codec;
 import io.minAR.util.Compressor;
 import io.minAR.util.Crypt;
+import io.minAR.util.Metrics;
 import io.minAR.util.Serializer;
+import io.minAR.util.Streams;
+import io.minAR.util.Workers;
 
+import javax.crypto.SecretKey;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
 /**
  * Core class, involved in the creation of internal file trees, reading of data from the files and outputing the archive
@@ -24,10 +46,52 @@ public class Analyzer {
      * The apex of the file hierarchy, the directory whose contents are to be archived
      */
     transient File top_directory;
-    boolean COMPRESSED, ENCRYPTED;
+    boolean COMPRESSED, ENCRYPTED, STREAMED;
+    /** The codec the contents of the files are compressed with, {@link Codec#STORE} if not compressed */
+    Codec codec;
+    /** Whether files with identical contents are stored once, only applicable to streamed archives */
+    boolean DEDUPLICATED;
+    /** Whether the codec of every file is picked on its own, only applicable to streamed archives */
+    boolean ADAPTIVE;
+    /** Picks the codecs of the files of the archive being streamed, if {@link #ADAPTIVE} */
+    private AdaptivePolicy policy;
     private static final String EXT = ".mar";
+    /** The size of the buffers used while streaming the archive, bounds the memory held per entry */
+    int buffer_size = Streams.DEFAULT_BUFFER_SIZE;
+    /** The number of threads the files are compressed on, 1 compresses them on the calling thread */
+    int threads = 1;
+    /** The executor the threads compressing the files, scanning the directory and running the {@link Pipeline} run on; null runs them on the pool shared by every operation */
+    private Executor executor;
+    /** The most bytes of files, being compressed in parallel, that may be held in memory before they are written */
+    long max_in_flight = 64L << 20;
+    /** The most bytes of small files compressed together in a solid block, 0 if every file is compressed on its own */
+    int solid_block_size;
+    /** The size of the parts larger files are split into and compressed in parallel, 0 if every file is compressed as a single stream */
+    int split_size;
+    /** The number of threads of every stage of the {@link Pipeline}, no compressor threads if the entries are not pipelined */
+    int reader_threads, compressor_threads, cipher_threads;
+    /** The compressed entries, or parts, already written; kept to be filled with the next ones rather than allocated afresh */
+    private ArrayBlockingQueue<ByteArrayOutputStream> spare_sinks;
+    /** Sinks that grew larger than it are not kept, 4 MB */
+    private static final int MAX_SINK_SIZE = 4 << 20;
+    /** The most nodes found by the scanner that wait to be written */
+    private static final int SCAN_AHEAD = 4096;
+    /** The channel of the archive being streamed, entries that are stored as they are, or copied, are transferred straight into it */
+    private FileChannel archive;
+    /** The archive being updated, whose entries are copied for the files unchanged since */
+    private ArchiveReader base;
+    /** Whether files are compared with the archive being updated by checksum too, not only by size and modification time */
+    boolean compare_contents;
+    /** Records the files written, and the time spent in every stage */
+    Metrics metrics = new Metrics();
+    /** Scans the directory, while the archive is streamed if the file tree is not yet generated */
+    private Scanner scanner;
     /** Temporary file tree */
     NodeTree<File> filetree;
+    /** Whether the archive is to be left unfinished, checked before every file */
+    private BooleanSupplier cancelled = () -> false;
+    /** The errors met while writing the archive, they are logged too */
+    private final List<Exception> errors = Collections.synchronizedList(new ArrayList<>());
 
     /**
      * Generates an internal file tree, from which is then filled with actual data of the files
@@ -39,32 +103,57 @@ public class Analyzer {
      * @see Crypt
      */
     public Analyzer(File dir, boolean COMPRESSED, boolean ENCRYPTED){
-        top_directory = dir;
-        if(!top_directory.isDirectory()) throw new RuntimeException(dir + " is not a directory");
+        this(dir, COMPRESSED, ENCRYPTED, false);
+    }
+
+    /**
+     * Generates an internal file tree, from which is then filled with actual data of the files
+     * @param dir The directory whose contents are to be compressed
+     * @param COMPRESSED whether the archive is compressed or not; xz compression applicable
+     * @param ENCRYPTED whether the archive is encrypted or not; if so, then a random key is generated and will be notified.
+     * @param STREAMED whether the archive is streamed or not; if so, the contents of the files are written straight into the archive
+     *                 and {@link #convertToDataTree()} need not be called.
+     * @see #OUTPUT_minAR(String)
+     */
+    public Analyzer(File dir, boolean COMPRESSED, boolean ENCRYPTED, boolean STREAMED){
+        this(new Scanner(dir), COMPRESSED, ENCRYPTED, STREAMED);
+    }
+
+    /**
+     * Generates an internal file tree with the scanner, from which is then filled with actual data of the files.
+     * If the archive is streamed, the directory is scanned only once the archive is being written, on a thread of its own;
+     * its files are then compressed as soon as they are found, rather than once every directory has been listed.
+     * @param scanner the scanner of the directory whose contents are to be compressed, with the files to be left out
+     * @param COMPRESSED whether the archive is compressed or not; xz compression applicable
+     * @param ENCRYPTED whether the archive is encrypted or not; if so, then a random key is generated and will be notified.
+     * @param STREAMED whether the archive is streamed or not; if so, the contents of the files are written straight into the archive
+     *                 and {@link #convertToDataTree()} need not be called.
+     * @see #OUTPUT_minAR(String)
+     */
+    public Analyzer(Scanner scanner, boolean COMPRESSED, boolean ENCRYPTED, boolean STREAMED){
+        top_directory = scanner.getDirectory();
+        if(!top_directory.isDirectory()) throw new RuntimeException(top_directory + " is not a directory");
         this.COMPRESSED = COMPRESSED;
         this.ENCRYPTED = ENCRYPTED;
-        filetree = new NodeTree<>(Node.newNode(null,top_directory, "/", createNodes(top_directory.listFiles())));
+        this.STREAMED = STREAMED;
+        this.codec = COMPRESSED ? Codec.XZ : Codec.STORE;
+        this.scanner = scanner;
+        if(!STREAMED) {
+            try {
+                filetree = scanner.scan();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
     }
 
     private Analyzer(NodeTree<File> nodeTree, boolean COMPRESSED, boolean ENCRYPTED){
         this.filetree = nodeTree;
         this.COMPRESSED = COMPRESSED;
+        this.codec = COMPRESSED ? Codec.XZ : Codec.STORE;
         this.ENCRYPTED = ENCRYPTED;
     }
 
-    // TODO Exclude empty folders.
-    private Node<File>[] createNodes(File... sub_files){
-        Node<File>[] ret = new Node[sub_files.length];
-        int x = 0;
-        for(File sub_file : sub_files){
-            String internal = sub_file.getAbsolutePath().replace(top_directory.getAbsolutePath(), "");
-            if(sub_file.isDirectory() && sub_file.listFiles().length > 0) ret[x] = Node.newNode(null,sub_file, internal, createNodes(sub_file.listFiles()));
-            else { ret[x] = Node.newNode(null,sub_file, internal, null); }
-            x++;
-        }
-        return ret;
-    }
-
     /**
      * A test function to traverse through and print all the nodes by calling <node>{@link Node}.toString()</code>
      */
@@ -75,42 +164,1000 @@ public class Analyzer {
 
     /**
      * Traverse through the internal file tree and fill in the actual data in the corresponding files.
+     * If more than one thread is set, the files are compressed in parallel.
+     * @see #setThreads(int)
      */
     public void convertToDataTree(){
+        if(threads > 1) {
+            convertToDataTreeParallel();
+            return;
+        }
         filetree.setListener((node, max) -> {
             File file = node.getUser_data();
-            if(!file.isDirectory()) {
+            if(!file.isDirectory() && !cancelled.getAsBoolean()) {
                 if(!COMPRESSED) node.setData(FileToBytes(file));
-                else node.setData(Compressor.compress(file));
+                else node.setData(compress(file));
+                dataDone(node);
             }
-            Log.debug(getClass().getCanonicalName(),node.toString());
+            if(Log.DEBUG) Log.debug(getClass().getCanonicalName(),node.toString());
         });
         filetree.traverse();
     }
 
+    /**
+     * Records the file of the node, now held in memory, in the {@link #metrics}
+     */
+    private void dataDone(Node<File> node){
+        byte[] data = node.getData();
+        metrics.fileDone(node.path, node.getUser_data().length(), data != null ? data.length : 0);
+    }
+
+    private void convertToDataTreeParallel(){
+        ArrayList<Future<?>> tasks = new ArrayList<>();
+        try (Workers pool = new Workers(executor, threads)){
+            filetree.setListener((node, max) -> {
+                File file = node.getUser_data();
+                if(!file.isDirectory()) tasks.add(pool.submit(() -> {
+                    if(cancelled.getAsBoolean()) return null;
+                    if(!COMPRESSED) node.setData(FileToBytes(file));
+                    else node.setData(compress(file));
+                    dataDone(node);
+                    if(Log.DEBUG) Log.debug(getClass().getCanonicalName(),node.toString());
+                    return null;
+                }));
+            });
+            filetree.traverse();
+            for(Future<?> task : tasks) task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error("interrupted", e);
+        } catch (ExecutionException e) {
+            error(e.getMessage(), e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+        }
+    }
+
+    /**
+     * Set the number of threads the files are compressed on
+     * @param threads the number of threads, 1 compresses the files on the calling thread
+     */
+    public void setThreads(int threads){
+        if(threads <= 0) throw new IllegalArgumentException("Thread count must be positive: " + threads);
+        this.threads = threads;
+    }
+
+    /**
+     * Set the executor the files are compressed on, along with the scanner of a streamed archive and the stages of its {@link #setPipeline(int, int, int) pipeline};
+     * at most {@link #setThreads(int)} files are compressed at once, whatever its size
+     * @param executor the executor, null (the default) runs them on the pool shared by every operation
+     * @see Workers
+     */
+    public void setExecutor(Executor executor){
+        this.executor = executor;
+    }
+
+    /**
+     * Set the codec the contents of the files are compressed with, it is recorded in the header of the archive.
+     * Xz, the default, compresses best; deflate trades ratio for speed.
+     * @param codec the codec, {@link Codec#STORE} leaves the contents uncompressed
+     */
+    public void setCodec(Codec codec){
+        this.codec = codec;
+        this.COMPRESSED = codec.getId() != Codec.STORE.getId();
+    }
+
+    /**
+     * Set whether the codec of every file of a streamed archive is picked on its own, such that data that does not shrink is not compressed.
+     * Files of compressed formats, and files whose first few KB look random, are stored as they are;
+     * those that look only partly random are compressed with {@link Codec#DEFLATE} rather than a slower codec.
+     * The codec of every such file is recorded in its node, the time saved is logged once the archive is written.
+     * @param ADAPTIVE whether codecs are picked per file or not
+     * @see AdaptivePolicy
+     */
+    public void setAdaptive(boolean ADAPTIVE){
+        this.ADAPTIVE = ADAPTIVE;
+    }
+
+    /**
+     * Set whether files with identical contents are stored once in a streamed archive, every path still refers to the stored entry.
+     * Files of the same size are hashed before being written, hence are read twice.
+     * @param DEDUPLICATED whether duplicates are stored once or not
+     */
+    public void setDeduplicated(boolean DEDUPLICATED){
+        this.DEDUPLICATED = DEDUPLICATED;
+    }
+
+    /**
+     * Set the size of the solid blocks of a streamed archive, files smaller than it are compressed together into blocks of at most that size.
+     * Many small files then share a single compressed stream and its dictionary, rather than one each;
+     * but reading one of them decompresses the block up to it, hence the size also bounds the cost of reading a single file.
+     * @param solid_block_size the most bytes of files in a block, 0 (the default) compresses every file on its own
+     */
+    public void setSolidBlockSize(int solid_block_size){
+        if(solid_block_size < 0) throw new IllegalArgumentException("Solid block size must not be negative: " + solid_block_size);
+        this.solid_block_size = solid_block_size;
+    }
+
+    /**
+     * Set the size of the parts the larger files of a streamed archive are split into, each part is compressed and encrypted on its own.
+     * The parts of a single file are then compressed on all {@link #setThreads(int) threads} at once, and decompressed in parallel too;
+     * at the cost of a slightly lower ratio, as no part refers to the data of another.
+     * @param split_size the size of the parts, files larger than it are split; 0 (the default) compresses every file as a single stream
+     * @see Parts
+     */
+    public void setSplitSize(int split_size){
+        if(split_size < 0) throw new IllegalArgumentException("Split size must not be negative: " + split_size);
+        this.split_size = split_size;
+    }
+
+    /**
+     * Set the number of threads of every stage a streamed archive is written through, such that reading, compressing and encrypting the files overlap;
+     * the entries are written in order on the calling thread, and the archive is the same as one written on a single thread.
+     * The stages are connected by bounded queues, and the files held in memory across them stay within {@link #setMaxInFlight(long)} bytes;
+     * the archive is then written as fast as the slowest stage, whose busy time is logged, allows. {@link #setThreads(int)} is not used.
+     * @param readers the number of threads the files are read on
+     * @param compressors the number of threads the files are compressed on, the parts of split files too
+     * @param ciphers the number of threads the files are encrypted on, if the archive is encrypted
+     * @see Pipeline
+     */
+    public void setPipeline(int readers, int compressors, int ciphers){
+        if(readers <= 0 || compressors <= 0 || ciphers <= 0) throw new IllegalArgumentException("Thread counts must be positive: " + readers + ", " + compressors + ", " + ciphers);
+        this.reader_threads = readers;
+        this.compressor_threads = compressors;
+        this.cipher_threads = ciphers;
+    }
+
+    /**
+     * Set the metrics the files written, and the time spent in every stage, are recorded in; a fresh instance is used by default.
+     * Their listeners are notified of every file as it is written.
+     * @param metrics the metrics, they may be shared with other jobs
+     */
+    public void setMetrics(Metrics metrics){
+        if(metrics == null) throw new NullPointerException("metrics");
+        this.metrics = metrics;
+    }
+
+    public Metrics getMetrics(){
+        return metrics;
+    }
+
+    /**
+     * Set what tells whether the archive is to be left unfinished, it is checked before every file is read and once every entry is written.
+     * Once it tells so, no more files are read; a streamed archive is left unfinished, with no trailer, and an archive held in memory is not written.
+     * @param cancelled whether to stop, called from the threads writing the archive
+     */
+    public void setCancelled(BooleanSupplier cancelled){
+        if(cancelled == null) throw new NullPointerException("cancelled");
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * @return the errors met while writing the archive, in the order met; along with an {@link InterruptedIOException} if it was left unfinished once cancelled
+     */
+    public List<Exception> getErrors(){
+        synchronized (errors) {
+            return new ArrayList<>(errors);
+        }
+    }
+
+    /**
+     * Logs the error and records it, an archive left unfinished once cancelled is only warned of
+     */
+    private void error(String message, Exception e){
+        if(e instanceof InterruptedIOException && cancelled.getAsBoolean()) Log.warn(TAG, message.equals(e.getMessage()) ? message : message + ": " + e.getMessage());
+        else Log.error(TAG, message, e);
+        errors.add(e);
+    }
+
+    /**
+     * @throws InterruptedIOException if the archive is to be left unfinished
+     */
+    private void checkCancelled() throws InterruptedIOException {
+        if(cancelled.getAsBoolean()) throw new InterruptedIOException("Cancelled, the archive is left unfinished");
+    }
+
+    /**
+     * Update the given archive instead of writing one afresh.
+     * Files whose size and modification time match those recorded in the archive are not compressed again,
+     * their entries are copied byte for byte; only the new and modified files are compressed.
+     * The archive must be streamed, and compressed and encrypted the same way as this one, else every file is compressed.
+     * An encrypted archive is written with the key of the archive being updated, and no new key is generated.
+     * @param base the archive being updated, it must be kept open until {@link #OUTPUT_minAR(String)} returns
+     * @param compare_contents whether the checksums of the files are compared too, the unchanged files are then read but still not compressed
+     */
+    public void setBase(ArchiveReader base, boolean compare_contents){
+        this.base = base;
+        this.compare_contents = compare_contents;
+    }
+
+    /**
+     * Set the most bytes of files that may be compressed in parallel, ahead of the entry being written into a streamed archive.
+     * Once reached, no more files are compressed until earlier ones are written. A single larger file is still compressed on its own.
+     * @param max_in_flight the number of bytes
+     */
+    public void setMaxInFlight(long max_in_flight){
+        if(max_in_flight <= 0) throw new IllegalArgumentException("In flight limit must be positive: " + max_in_flight);
+        this.max_in_flight = max_in_flight;
+    }
+
+    /**
+     * Set the size of the buffers used while streaming the archive
+     * @param buffer_size the size of the buffers, in bytes
+     */
+    public void setBufferSize(int buffer_size){
+        if(buffer_size <= 0) throw new IllegalArgumentException("Buffer size must be positive: " + buffer_size);
+        this.buffer_size = buffer_size;
+    }
+
     /**
      * Finally, output the archive onto the file.
-     * The file tree is serialized into bytes, encrypted and written into the file
+     * A {@link Header} describing the archive is written, followed by the file tree, serialized and encrypted in authenticated chunks as it is written
      * @param file the archive file
      * @see Serializer
      * @see Crypt
      */
     public void OUTPUT_minAR(String file){
         file += EXT;
+        if(STREAMED) {
+            STREAM_minAR(file);
+            return;
+        }
+        try {
+            checkCancelled();
+        } catch (InterruptedIOException e) {
+            error("Did not write " + file, e);
+            return;
+        }
         try (FileOutputStream fileOutputStream = new FileOutputStream(file)){
-            if(ENCRYPTED) {
-                Crypt.ENC_OBJECT enc_object = Crypt.encrypt(Serializer.serialize(filetree));
-                fileOutputStream.write(enc_object.getRaw());
-                Files.write(Paths.get(file.replaceAll(EXT, "_mar") + "_secret.key"), enc_object.secretKey().getEncoded());
-                System.out.println("Your key: " + Crypt.keyAsString(enc_object.secretKey()) + Arrays.toString(enc_object.secretKey().getEncoded()));
+            fileOutputStream.write(Header.of(codec.getId(), ENCRYPTED, false).toBuffer().array());
+            SecretKey secretKey = ENCRYPTED ? Crypt.generateKey() : null;
+            // Encrypted a chunk at a time as it is serialized, the serializer closes the stream once done
+            Serializer.serialize(entryStream(fileOutputStream, secretKey), filetree);
+            if(ENCRYPTED) outputKey(file, secretKey);
+        } catch (FileNotFoundException e) {
+            error("File NOT FOUND!", e);
+        } catch (IOException e) {
+            error(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Stream the archive onto the file, one entry at a time.
+     * The contents of every file are read, compressed and encrypted straight into the archive, recording the offset and length in the node.
+     * The file tree, now without data, is then written as a trailer, followed by the {@link ArchiveIndex}.
+     * Each entry, the trailer and the index, is encrypted on its own, so that it can be read without the rest of the archive.
+     * The {@link Header} is written first, and completed with the offsets of the trailer and the index once the archive is written;
+     * hence an archive that was not finished is never mistaken for a valid one.
+     * @param file the archive file
+     */
+    private void STREAM_minAR(String file){
+        Header header = Header.of(codec.getId(), ENCRYPTED, true);
+        boolean reuse = base != null && isCompatible(base.getHeader());
+        if(base != null && !reuse) Log.warn(TAG, "The archive being updated is not compressed or encrypted the same way, every file is compressed");
+        SecretKey secretKey = !ENCRYPTED ? null : reuse ? base.getSecretKey() : Crypt.generateKey();
+        if(DEDUPLICATED) header.features |= Header.DEDUPLICATED;
+        if(solid_block_size > 0) header.features |= Header.SOLID;
+        header.features |= Header.CHECKED;
+        policy = ADAPTIVE ? new AdaptivePolicy(codec) : null;
+        spare_sinks = new ArrayBlockingQueue<>(threads * 2 + 2);
+        // The entries copied out of an adaptive archive keep their codecs
+        if(ADAPTIVE || reuse && (base.getHeader().features & Header.ADAPTIVE) != 0) header.features |= Header.ADAPTIVE;
+        if(split_size > 0 || reuse && (base.getHeader().features & Header.SPLIT) != 0) header.features |= Header.SPLIT;
+        // The tree is scanned while the entries are written, unless it already was; duplicates can only be told once every file is found
+        Iterator<Node<File>> found;
+        ScannedNodes scanned = null;
+        if(filetree != null) {
+            ArrayList<Node<File>> nodes = new ArrayList<>();
+            filetree.setListener((node, max) -> nodes.add(node));
+            filetree.traverse();
+            found = nodes.iterator();
+        } else {
+            found = scanned = new ScannedNodes();
+        }
+        try (FileOutputStream file_stream = new FileOutputStream(file);
+             Streams.CountingOutputStream out = new Streams.CountingOutputStream(new BufferedOutputStream(file_stream, buffer_size), new CRC32())){
+            archive = file_stream.getChannel();
+            out.write(header.toBuffer().array());
+            out.takeChecksum();
+            Map<Node<File>, Node<File>> duplicates = Collections.emptyMap();
+            if(DEDUPLICATED) {
+                ArrayList<Node<File>> nodes = new ArrayList<>();
+                found.forEachRemaining(nodes::add);
+                duplicates = findDuplicates(nodes);
+                found = nodes.iterator();
+            }
+            EntryPlanner planner = new EntryPlanner(found, duplicates, reuse ? previousNodes() : null);
+            Iterator<List<Node<File>>> entries = planner;
+            // Every file found already is planned up front, such that the files expected are known before any is written
+            if(!(found instanceof ScannedNodes)) {
+                ArrayList<List<Node<File>>> planned = new ArrayList<>();
+                planner.forEachRemaining(planned::add);
+                entries = planned.iterator();
+            }
+            Map<Node<File>, Node<?>> unchanged = planner.unchanged;
+            if(compressor_threads > 0) {
+                streamEntriesPipelined(out, secretKey, entries, unchanged);
+            } else if(threads > 1) {
+                streamEntriesParallel(out, secretKey, entries, unchanged);
             } else {
-                Serializer.serialize(fileOutputStream, filetree);
+                byte[] buffer = new byte[buffer_size];
+                while (entries.hasNext()) {
+                    List<Node<File>> entry = entries.next();
+                    long offset = out.getCount();
+                    long start = System.nanoTime();
+                    Node<?> previous = unchanged.get(entry.get(0));
+                    boolean copied = previous != null || isDirect(entry, secretKey);
+                    if(previous != null) copyEntry(entry.get(0), previous, out);
+                    else if(isDirect(entry, secretKey)) writeDirect(entry.get(0), out);
+                    else if(isSplit(entry)) writeSplit(entry.get(0), out, secretKey, null);
+                    else writeEntry(entry, out, secretKey, buffer);
+                    setExtent(entry, offset, out);
+                    recordEntry(entry, copied ? Metrics.Stage.WRITE : Metrics.Stage.COMPRESS, out.getCount() - offset, System.nanoTime() - start);
+                }
+            }
+            if(reuse) Log.info(TAG, unchanged.size() + " unchanged files, " + planner.unchanged_bytes + " bytes copied without compressing");
+            // Every original has been written by now, wherever it lies in the tree
+            duplicates.forEach(Node::referTo);
+            header.trailer = out.getCount();
+            try (OutputStream trailer_stream = entryStream(out, secretKey)){
+                Serializer.serializeTrailer(trailer_stream, filetree);
+            }
+            header.index = out.getCount();
+            ArrayList<Node<File>> files = new ArrayList<>();
+            for(Node<File> node : planner.nodes){
+                if(!node.getUser_data().isDirectory()) files.add(node);
+            }
+            try (OutputStream index_stream = entryStream(out, secretKey)){
+                ArchiveIndex.write(index_stream, files, header.features);
             }
         } catch (FileNotFoundException e) {
-            Log.error(TAG,"File NOT FOUND!", e);
+            error("File NOT FOUND!", e);
+            metrics.jobDone();
+            return;
         } catch (IOException e) {
-            Log.error(TAG, e.getMessage(), e);
+            error(e.getMessage(), e);
+            metrics.jobDone();
+            return;
+        } catch (UncheckedIOException e) {
+            error(e.getMessage(), e.getCause());
+            metrics.jobDone();
+            return;
+        } finally {
+            if(scanned != null) scanned.close();
+            archive = null;
+        }
+        if(policy != null) Log.info(TAG, "Adaptive codecs: " + policy);
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.WRITE)){
+            channel.write(header.toBuffer(), 0);
+            if(ENCRYPTED && !reuse) outputKey(file, secretKey);
+        } catch (IOException e) {
+            error(e.getMessage(), e);
+        }
+        metrics.jobDone();
+    }
+
+    /**
+     * Whether the entries of the archive being updated can be copied into this one as they are
+     */
+    private boolean isCompatible(Header previous){
+        return previous.isStreamed() && previous.codec == codec.getId() && previous.isEncrypted() == ENCRYPTED;
+    }
+
+    /**
+     * @return the nodes of the archive being updated, keyed by path
+     */
+    private Map<String, Node<?>> previousNodes() throws IOException {
+        HashMap<String, Node<?>> ret = new HashMap<>();
+        NodeTree<File> tree = base.getFileTree();
+        tree.setListener((node, max) -> ret.put(node.path, node));
+        tree.traverse();
+        return ret;
+    }
+
+    /**
+     * Whether the file has not changed since the archive being updated was written.
+     * A file is unchanged if its size and modification time match those of the node with the same path in the archive,
+     * and if {@link #compare_contents} is set, its checksum as well.
+     * @param previous the nodes of the archive being updated, keyed by path
+     * @return the node in the archive being updated, null if the file changed or is new
+     */
+    private Node<?> findUnchanged(Node<File> node, Map<String, Node<?>> previous, byte[] buffer) throws IOException {
+        File file = node.getUser_data();
+        Node<?> match = previous.get(node.path);
+        // Files of a solid block cannot be copied without the rest of the block
+        if(file.isDirectory() || match == null || match.modified == 0 || match.block_offset >= 0) return null;
+        if(match.modified != node.modified || match.raw_length != file.length()) return null;
+        if(compare_contents && checksum(file, buffer) != match.checksum) return null;
+        return match;
+    }
+
+    private static long checksum(File file, byte[] buffer) throws IOException {
+        try (CheckedInputStream inputStream = new CheckedInputStream(new FileInputStream(file), new CRC32())){
+            while (inputStream.read(buffer) != -1);
+            return inputStream.getChecksum().getValue();
+        }
+    }
+
+    /**
+     * Copies the entry of an unchanged file out of the archive being updated, recording its size and checksum in the node.
+     * The entry is transferred from channel to channel.
+     */
+    private void copyEntry(Node<File> node, Node<?> previous, Streams.CountingOutputStream out) throws IOException {
+        out.flush();
+        long entry_checksum = previous.entry_checksum >= 0 ? previous.entry_checksum : base.entryChecksum(previous);
+        out.written(base.copyRaw(previous, archive), entry_checksum);
+        node.raw_length = previous.raw_length;
+        node.checksum = previous.checksum;
+        node.codec = previous.codec;
+        node.parts = previous.parts;
+        if(node.hash == null) node.hash = previous.hash;
+    }
+
+    /**
+     * Finds the files whose contents are identical to that of an earlier file in the tree.
+     * Only files of the same size are hashed, with SHA-256, the hash is recorded in their nodes.
+     * @param nodes the nodes of the tree, in order
+     * @return the original node of every duplicate, keyed by the duplicate
+     */
+    private Map<Node<File>, Node<File>> findDuplicates(List<Node<File>> nodes) throws IOException {
+        HashMap<Long, ArrayList<Node<File>>> by_size = new HashMap<>();
+        for(Node<File> node : nodes){
+            File file = node.getUser_data();
+            if(!file.isDirectory()) by_size.computeIfAbsent(file.length(), size -> new ArrayList<>()).add(node);
         }
+        IdentityHashMap<Node<File>, Node<File>> ret = new IdentityHashMap<>();
+        HashMap<ByteBuffer, Node<File>> by_hash = new HashMap<>();
+        byte[] buffer = new byte[buffer_size];
+        long saved = 0;
+        for(Node<File> node : nodes){
+            File file = node.getUser_data();
+            if(file.isDirectory() || by_size.get(file.length()).size() < 2) continue;
+            node.hash = hash(file, buffer);
+            Node<File> original = by_hash.putIfAbsent(ByteBuffer.wrap(node.hash), node);
+            if(original != null) {
+                ret.put(node, original);
+                saved += file.length();
+            }
+        }
+        Log.info(TAG, ret.size() + " duplicate files, " + saved + " bytes stored once");
+        return ret;
+    }
+
+    private static byte[] hash(File file, byte[] buffer) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (DigestInputStream inputStream = new DigestInputStream(new FileInputStream(file), digest)){
+            while (inputStream.read(buffer) != -1);
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Groups the nodes into the entries of the archive as they are found, in the order of the tree.
+     * If solid blocks are enabled, files smaller than {@link #solid_block_size} are gathered into blocks of at most that size,
+     * a block is written where its last file lies in the tree. Every other node is an entry of its own, duplicates have none.
+     * If {@link #ADAPTIVE}, the codec of every file is picked first; files not compressed with the codec of the archive are never part of a block.
+     * Every entry holds the nodes of more than one file only for a solid block.
+     * <p>
+     * Files are planned on the thread taking the entries, as they are taken; the files expected in the {@link #metrics} grow along.
+     * Failures to read a file, or to scan the directory, are thrown as {@link UncheckedIOException}s.
+     */
+    private class EntryPlanner implements Iterator<List<Node<File>>> {
+        private final Iterator<Node<File>> found;
+        private final Map<Node<File>, Node<File>> duplicates;
+        /** The nodes of the archive being updated keyed by path, null if its entries are not copied */
+        private final Map<String, Node<?>> previous;
+        /** Every node found so far, in the order of the tree */
+        final ArrayList<Node<File>> nodes = new ArrayList<>();
+        /** The node in the archive being updated of every unchanged file planned so far, keyed by the node of the file; read by the stages writing the entries */
+        final Map<Node<File>, Node<?>> unchanged = Collections.synchronizedMap(new IdentityHashMap<>());
+        long unchanged_bytes;
+        private final ArrayDeque<List<Node<File>>> planned = new ArrayDeque<>();
+        private ArrayList<Node<File>> block = new ArrayList<>();
+        private long block_length, expected_files, expected_bytes;
+        private final byte[] buffer = new byte[buffer_size];
+
+        EntryPlanner(Iterator<Node<File>> found, Map<Node<File>, Node<File>> duplicates, Map<String, Node<?>> previous){
+            this.found = found;
+            this.duplicates = duplicates;
+            this.previous = previous;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (planned.isEmpty() && found.hasNext()) {
+                try {
+                    plan(found.next());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            if(planned.isEmpty() && !block.isEmpty()) {
+                planned.add(block);
+                block = new ArrayList<>();
+            }
+            return !planned.isEmpty();
+        }
+
+        @Override
+        public List<Node<File>> next() {
+            if(!hasNext()) throw new NoSuchElementException();
+            return planned.poll();
+        }
+
+        private void plan(Node<File> node) throws IOException {
+            nodes.add(node);
+            if(duplicates.containsKey(node)) return;
+            File file = node.getUser_data();
+            if(!file.isDirectory()) metrics.expect(++expected_files, expected_bytes += file.length());
+            Node<?> match = previous != null ? findUnchanged(node, previous, buffer) : null;
+            if(match != null) {
+                unchanged.put(node, match);
+                unchanged_bytes += match.raw_length;
+            }
+            if(policy != null && !file.isDirectory() && match == null) {
+                Codec chosen = policy.choose(file);
+                if(chosen != codec) node.codec = chosen.getId();
+            }
+            if(solid_block_size > 0 && !file.isDirectory() && match == null && node.codec < 0 && file.length() < solid_block_size) {
+                if(block_length + file.length() > solid_block_size) {
+                    planned.add(block);
+                    block = new ArrayList<>();
+                    block_length = 0;
+                }
+                block.add(node);
+                block_length += file.length();
+            } else {
+                planned.add(Collections.singletonList(node));
+            }
+        }
+    }
+
+    /**
+     * The nodes of the directory as the {@link #scanner} finds them, while it scans the directory on a thread of the {@link #executor}.
+     * At most {@link #SCAN_AHEAD} nodes wait to be taken, the scanner waits for them to be taken before it goes on.
+     * The file tree is complete once every node is taken. Once closed, or once the archive is to be left unfinished, the scanner stops.
+     * A failure to scan the directory is thrown as an {@link UncheckedIOException}, once every node found before it is taken.
+     */
+    private class ScannedNodes implements Iterator<Node<File>>, Closeable {
+        /** Marks the end of the nodes */
+        private final Node<File> end = Node.newNode(null, null, "", (Node<File>[]) null);
+        private final ArrayBlockingQueue<Node<File>> queue = new ArrayBlockingQueue<>(SCAN_AHEAD);
+        private final Workers workers = new Workers(executor, 1);
+        private volatile IOException failure;
+        private volatile boolean closed;
+        private Node<File> next;
+
+        ScannedNodes(){
+            workers.start(TAG + "-scanner", () -> {
+                long start = System.nanoTime();
+                try {
+                    filetree = scanner.scan(this::put, () -> closed || cancelled.getAsBoolean());
+                    Log.info(TAG, "Scanned " + top_directory + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+                } catch (IOException e) {
+                    failure = e;
+                } catch (RuntimeException e) {
+                    failure = new IOException(e);
+                } finally {
+                    put(end);
+                }
+            });
+        }
+
+        /**
+         * Waits for room for the node, unless closed; the scanner stops once it is
+         */
+        private void put(Node<File> node){
+            if(closed) return;
+            try {
+                queue.put(node);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                closed = true;
+            }
+        }
+
+        /**
+         * Waits for the next node, the scanner is started on the pool shared by every operation if the executor is too busy to start it
+         */
+        private Node<File> take() throws InterruptedException {
+            Node<File> ret = queue.poll(Workers.START_MILLIS, TimeUnit.MILLISECONDS);
+            if(ret != null) return ret;
+            workers.startLate();
+            return queue.take();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if(next == null) {
+                try {
+                    next = take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new UncheckedIOException(new InterruptedIOException(e.getMessage()));
+                }
+            }
+            if(next != end) return true;
+            if(failure != null) throw new UncheckedIOException(failure);
+            return false;
+        }
+
+        @Override
+        public Node<File> next() {
+            if(!hasNext()) throw new NoSuchElementException();
+            Node<File> ret = next;
+            next = null;
+            return ret;
+        }
+
+        /**
+         * Stops the scanner, if it has not finished; the nodes not taken are dropped
+         */
+        @Override
+        public void close() {
+            closed = true;
+            // Makes room for the node the scanner may be waiting to put, it then sees it is closed
+            queue.clear();
+            workers.close();
+        }
+    }
+
+    /**
+     * Records where the entry was written in its nodes, along with its checksum, and its files in the {@link #metrics}
+     * @param offset the position of the entry in the archive, it ends where the archive is written up to
+     * @param out the archive, the checksum of the entry is taken out of it
+     * @throws InterruptedIOException if the archive is to be left unfinished, once the entry is recorded
+     */
+    void setExtent(List<Node<File>> entry, long offset, Streams.CountingOutputStream out) throws InterruptedIOException {
+        long length = out.getCount() - offset, entry_checksum = out.takeChecksum();
+        for(Node<File> node : entry){
+            node.offset = offset;
+            node.length = length;
+            node.entry_checksum = entry_checksum;
+        }
+        if(!entry.get(0).getUser_data().isDirectory()) {
+            for(int x = 0; x < entry.size(); x++) metrics.fileDone(entry.get(x).path, entry.get(x).raw_length, x == 0 ? length : 0);
+        }
+        checkCancelled();
+    }
+
+    /**
+     * Records the time spent on the entry in the {@link #metrics}, against the files for {@link Metrics.Stage#COMPRESS}, else the bytes written
+     */
+    private void recordEntry(List<Node<File>> entry, Metrics.Stage stage, long length, long nanos){
+        if(entry.get(0).getUser_data().isDirectory()) return;
+        long bytes = length;
+        if(stage == Metrics.Stage.COMPRESS) {
+            bytes = 0;
+            for(Node<File> node : entry) bytes += node.raw_length;
+        }
+        metrics.record(stage, bytes, nanos);
+    }
+
+    /**
+     * Compresses the entries on a pool of threads, while they are written in order on the calling thread.
+     * Entries are handed to the pool only while the entries waiting to be written stay within twice the number of threads,
+     * and {@link #max_in_flight} bytes; else the oldest entry is written first.
+     * A file that is split is written once every entry before it is, its parts are then compressed on the same pool;
+     * so is a file that is stored as it is, it is transferred on the calling thread.
+     */
+    private void streamEntriesParallel(Streams.CountingOutputStream out, SecretKey secretKey, Iterator<List<Node<File>>> entries,
+                                       Map<Node<File>, Node<?>> unchanged) throws IOException {
+        ArrayDeque<PendingEntry> window = new ArrayDeque<>();
+        long in_flight = 0;
+        try (Workers pool = new Workers(executor, threads)){
+            while (entries.hasNext()) {
+                List<Node<File>> entry = entries.next();
+                Node<?> previous = unchanged.get(entry.get(0));
+                boolean directory = entry.get(0).getUser_data().isDirectory();
+                if(previous == null && (isDirect(entry, secretKey) || isSplit(entry))) {
+                    while (!window.isEmpty()) window.poll().writeTo(out);
+                    in_flight = 0;
+                    long offset = out.getCount();
+                    long start = System.nanoTime();
+                    boolean direct = isDirect(entry, secretKey);
+                    if(direct) writeDirect(entry.get(0), out);
+                    else writeSplit(entry.get(0), out, secretKey, pool);
+                    setExtent(entry, offset, out);
+                    recordEntry(entry, direct ? Metrics.Stage.WRITE : Metrics.Stage.COMPRESS, out.getCount() - offset, System.nanoTime() - start);
+                    continue;
+                }
+                long cost = 0;
+                if(previous == null && !directory) for(Node<File> node : entry) cost += node.getUser_data().length();
+                while (!window.isEmpty() && (window.size() >= threads * 2 || in_flight + cost > max_in_flight)) {
+                    in_flight -= window.poll().writeTo(out);
+                }
+                Future<ByteArrayOutputStream> data = null;
+                if(previous == null && !directory) data = pool.submit(() -> {
+                    ByteArrayOutputStream sink = takeSink();
+                    byte[] copy = Buffers.take(buffer_size);
+                    long start = System.nanoTime();
+                    try {
+                        writeEntry(entry, sink, secretKey, copy);
+                    } finally {
+                        Buffers.release(copy);
+                    }
+                    recordEntry(entry, Metrics.Stage.COMPRESS, sink.size(), System.nanoTime() - start);
+                    return sink;
+                });
+                window.add(new PendingEntry(entry, data, previous, cost));
+                in_flight += cost;
+            }
+            while (!window.isEmpty()) window.poll().writeTo(out);
+        }
+    }
+
+    /**
+     * Writes the entries through the stages of a {@link Pipeline}.
+     * Entries that are not read into memory, i.e, unchanged, stored or split files, and those larger than {@link #max_in_flight}, are written by the writer stage itself;
+     * the parts of a split file are compressed on a pool of {@link #compressor_threads}.
+     */
+    private void streamEntriesPipelined(Streams.CountingOutputStream out, SecretKey secretKey, Iterator<List<Node<File>>> entries,
+                                        Map<Node<File>, Node<?>> unchanged) throws IOException {
+        Pipeline pipeline = new Pipeline(this, reader_threads, compressor_threads, cipher_threads, secretKey, max_in_flight, executor);
+        byte[] buffer = new byte[buffer_size];
+        try (Workers pool = new Workers(executor, compressor_threads)){
+            pipeline.run(entries, entry -> unchanged.containsKey(entry.get(0)) || entry.get(0).getUser_data().isDirectory()
+                    || isDirect(entry, secretKey) || isSplit(entry) || !pipeline.fits(entry), entry -> {
+                long offset = out.getCount();
+                long start = System.nanoTime();
+                Node<?> previous = unchanged.get(entry.get(0));
+                boolean copied = previous != null || isDirect(entry, secretKey);
+                if(previous != null) copyEntry(entry.get(0), previous, out);
+                else if(isDirect(entry, secretKey)) writeDirect(entry.get(0), out);
+                else if(isSplit(entry)) writeSplit(entry.get(0), out, secretKey, pool);
+                else writeEntry(entry, out, secretKey, buffer);
+                recordEntry(entry, copied ? Metrics.Stage.WRITE : Metrics.Stage.COMPRESS, out.getCount() - offset, System.nanoTime() - start);
+            }, out);
+        }
+    }
+
+    /**
+     * An entry of a streamed archive, being compressed in parallel, waiting to be written
+     */
+    private class PendingEntry {
+        final List<Node<File>> nodes;
+        final Future<ByteArrayOutputStream> data;
+        /** The node in the archive being updated, if the file is unchanged */
+        final Node<?> previous;
+        final long cost;
+
+        PendingEntry(List<Node<File>> nodes, Future<ByteArrayOutputStream> data, Node<?> previous, long cost){
+            this.nodes = nodes;
+            this.data = data;
+            this.previous = previous;
+            this.cost = cost;
+        }
+
+        /**
+         * Waits for the entry to be compressed and writes it, an unchanged file is copied out of the archive being updated instead
+         * @return the cost of the entry, now that it is no longer held
+         */
+        long writeTo(Streams.CountingOutputStream out) throws IOException {
+            long offset = out.getCount();
+            ByteArrayOutputStream sink = data != null ? await(data) : null;
+            long start = System.nanoTime();
+            if(previous != null) {
+                copyEntry(nodes.get(0), previous, out);
+            } else if(sink != null) {
+                writeSink(sink, out);
+            }
+            setExtent(nodes, offset, out);
+            recordEntry(nodes, Metrics.Stage.WRITE, out.getCount() - offset, System.nanoTime() - start);
+            return cost;
+        }
+    }
+
+    private static <T> T await(Future<T> data) throws IOException {
+        try {
+            return data.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Whether the file of the entry is stored as it is, neither compressed nor encrypted, hence is transferred into the archive as it is
+     */
+    private boolean isDirect(List<Node<File>> entry, SecretKey secretKey){
+        Node<File> node = entry.get(0);
+        return secretKey == null && entry.size() == 1 && !node.getUser_data().isDirectory()
+                && (node.codec < 0 ? codec.getId() : node.codec) == Codec.STORE.getId();
+    }
+
+    /**
+     * Copies the file of the node into the archive from channel to channel, recording its size and checksum in the node.
+     * The file is read once, through a direct buffer; the checksum is taken of every buffer before it is written, hence the contents are never copied onto the heap
+     * and the checksum is that of the bytes stored, even if the file changes meanwhile.
+     */
+    private void writeDirect(Node<File> node, Streams.CountingOutputStream out) throws IOException {
+        out.flush();
+        try (FileChannel source = FileChannel.open(node.getUser_data().toPath(), StandardOpenOption.READ)){
+            CRC32 crc = new CRC32();
+            ByteBuffer direct = Buffers.direct();
+            long length = 0;
+            for(int len = source.read(direct); len != -1; len = source.read(direct)){
+                direct.flip();
+                direct.mark();
+                crc.update(direct);
+                direct.reset();
+                while (direct.hasRemaining()) archive.write(direct);
+                direct.clear();
+                length += len;
+            }
+            // Stored as it is, the entry is the file
+            out.written(length, crc.getValue());
+            node.raw_length = length;
+            node.checksum = crc.getValue();
+        }
+    }
+
+    /**
+     * Whether the file of the entry is larger than {@link #split_size}, hence is split into parts
+     */
+    private boolean isSplit(List<Node<File>> entry){
+        File file = entry.get(0).getUser_data();
+        return split_size > 0 && entry.size() == 1 && !file.isDirectory() && file.length() > split_size;
+    }
+
+    /**
+     * Reads the file of the node in parts of {@link #split_size}, every part is compressed and encrypted on its own on the pool,
+     * while the parts are written in order on the calling thread. The parts waiting to be written stay within twice the number of threads,
+     * and {@link #max_in_flight} bytes. The lengths of the parts, along with the size and checksum of the file, are recorded in the node.
+     * @param pool the pool the parts are compressed on, null compresses them on the calling thread
+     */
+    private void writeSplit(Node<File> node, OutputStream out, SecretKey secretKey, Workers pool) throws IOException {
+        Codec used = node.codec < 0 ? codec : Codec.forId(node.codec);
+        int workers = compressor_threads > 0 ? compressor_threads : threads;
+        int window_size = (int) Math.max(1, Math.min(workers * 2L, max_in_flight / split_size));
+        ArrayDeque<Future<ByteArrayOutputStream>> window = new ArrayDeque<>();
+        // The parts read are handed back once compressed, to be read into again
+        ArrayBlockingQueue<byte[]> spare_parts = new ArrayBlockingQueue<>(window_size + 1);
+        ArrayList<Long> parts = new ArrayList<>();
+        CRC32 crc = new CRC32();
+        long raw_length = 0;
+        int written = 0;
+        try (InputStream inputStream = new FileInputStream(node.getUser_data())){
+            while (true) {
+                byte[] spare = spare_parts.poll();
+                byte[] raw = spare != null ? spare : new byte[split_size];
+                int length = 0;
+                for(int len = 0; len != -1 && length < raw.length; len = inputStream.read(raw, length, raw.length - length)) length += len;
+                if(length == 0) {
+                    spare_parts.offer(raw);
+                    break;
+                }
+                crc.update(raw, 0, length);
+                raw_length += length;
+                int part_length = length;
+                Callable<ByteArrayOutputStream> task = () -> {
+                    try {
+                        return compressPart(used, raw, part_length, secretKey);
+                    } finally {
+                        spare_parts.offer(raw);
+                    }
+                };
+                Future<ByteArrayOutputStream> data;
+                if(pool != null) {
+                    data = pool.submit(task);
+                } else {
+                    FutureTask<ByteArrayOutputStream> inline = new FutureTask<>(task);
+                    inline.run();
+                    data = inline;
+                }
+                window.add(data);
+                parts.add(0L);
+                parts.add((long) length);
+                while (window.size() >= window_size) parts.set(2 * written++, writePart(window.poll(), out));
+            }
+        }
+        while (!window.isEmpty()) parts.set(2 * written++, writePart(window.poll(), out));
+        node.parts = new long[parts.size()];
+        for(int x = 0; x < parts.size(); x++) node.parts[x] = parts.get(x);
+        node.raw_length = raw_length;
+        node.checksum = crc.getValue();
+    }
+
+    private long writePart(Future<ByteArrayOutputStream> data, OutputStream out) throws IOException {
+        return writeSink(await(data), out);
+    }
+
+    /**
+     * Compresses and encrypts a part of a split file, as a stream of its own
+     */
+    private ByteArrayOutputStream compressPart(Codec used, byte[] raw, int length, SecretKey secretKey) throws IOException {
+        long start = policy != null ? AdaptivePolicy.cpuTime() : 0;
+        ByteArrayOutputStream sink = takeSink();
+        try (OutputStream part = used.compressStream(entryStream(sink, secretKey))){
+            part.write(raw, 0, length);
+        }
+        if(policy != null) policy.record(used, length, AdaptivePolicy.cpuTime() - start);
+        return sink;
+    }
+
+    private ByteArrayOutputStream takeSink(){
+        ByteArrayOutputStream ret = spare_sinks.poll();
+        return ret != null ? ret : new ByteArrayOutputStream(buffer_size);
+    }
+
+    /**
+     * Writes the contents of the sink, without copying them, then keeps it for the next entry
+     * @return the number of bytes written
+     */
+    private long writeSink(ByteArrayOutputStream sink, OutputStream out) throws IOException {
+        int ret = sink.size();
+        sink.writeTo(out);
+        if(ret <= MAX_SINK_SIZE) {
+            sink.reset();
+            spare_sinks.offer(sink);
+        }
+        return ret;
+    }
+
+    /**
+     * Writes the files of the entry, a solid block if it has more than one, into the output stream
+     */
+    private void writeEntry(List<Node<File>> entry, OutputStream out, SecretKey secretKey, byte[] buffer) throws IOException {
+        if(entry.size() > 1) writeBlock(entry, out, secretKey, buffer);
+        else if(!entry.get(0).getUser_data().isDirectory()) writeEntry(entry.get(0), out, secretKey, buffer);
+    }
+
+    /**
+     * Reads the files of the block one after another into a single compressed stream, encrypted as a single entry.
+     * The position of every file within the block, along with its size and checksum, is recorded in its node.
+     */
+    private void writeBlock(List<Node<File>> block, OutputStream out, SecretKey secretKey, byte[] buffer) throws IOException {
+        try (OutputStream entry = codec.compressStream(entryStream(out, secretKey))){
+            long position = 0;
+            for(Node<File> node : block){
+                try (CheckedInputStream inputStream = new CheckedInputStream(new FileInputStream(node.getUser_data()), new CRC32())){
+                    node.block_offset = position;
+                    node.raw_length = Streams.copy(inputStream, entry, buffer);
+                    node.checksum = inputStream.getChecksum().getValue();
+                }
+                position += node.raw_length;
+            }
+        }
+    }
+
+    /**
+     * Reads, compresses and encrypts the file of the node into the output stream, as a single entry.
+     * The size and checksum of the file are recorded in the node.
+     */
+    private void writeEntry(Node<File> node, OutputStream out, SecretKey secretKey, byte[] buffer) throws IOException {
+        Codec used = node.codec < 0 ? codec : Codec.forId(node.codec);
+        long start = policy != null ? AdaptivePolicy.cpuTime() : 0;
+        try (CheckedInputStream inputStream = new CheckedInputStream(new FileInputStream(node.getUser_data()), new CRC32());
+             OutputStream entry = used.compressStream(entryStream(out, secretKey))){
+            node.raw_length = Streams.copy(inputStream, entry, buffer);
+            node.checksum = inputStream.getChecksum().getValue();
+        }
+        if(policy != null) policy.record(used, node.raw_length, AdaptivePolicy.cpuTime() - start);
+    }
+
+    /**
+     * Record the time spent compressing a file, if codecs are picked per file
+     * @see AdaptivePolicy#record(Codec, long, long)
+     */
+    void recordCompression(Codec used, long bytes, long nanos){
+        if(policy != null) policy.record(used, bytes, nanos);
+    }
+
+    static OutputStream entryStream(OutputStream out, SecretKey secretKey) throws IOException {
+        if(secretKey == null) return Streams.shield(out);
+        return Crypt.encryptChunked(Streams.shield(out), secretKey);
+    }
+
+    private static void outputKey(String file, SecretKey secretKey) throws IOException {
+        Files.write(Paths.get(file.replaceAll(EXT, "_mar") + "_secret.key"), secretKey.getEncoded());
+        System.out.println("Your key: " + Crypt.keyAsString(secretKey) + Arrays.toString(secretKey.getEncoded()));
     }
 
     private void printSubNodes(ArrayList<Node<File>> subnodes){
@@ -123,23 +1170,39 @@ public class Analyzer {
         });
     }
 
-    private static byte[] FileToBytes(File file){
+    /**
+     * Compresses the file with the {@link #codec}, for archives held in memory
+     */
+    private byte[] compress(File file){
+        // Sized for about half the file, so that it rarely grows
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream((int) Math.min(file.length() / 2, MAX_SINK_SIZE) + 64);
+        byte[] buffer = Buffers.take();
+        try (FileInputStream inputStream = new FileInputStream(file);
+             OutputStream outputStream = codec.compressStream(byteArrayOutputStream)){
+            Streams.copy(inputStream, outputStream, buffer);
+        } catch (FileNotFoundException e) {
+            error(file + " Could not be found! [404... :( ]", e);
+            return null;
+        } catch (IOException e) {
+            error("io_error", e);
+            return null;
+        } finally {
+            Buffers.release(buffer);
+        }
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    /**
+     * Reads the file into an array of its size, without an intermediate buffer
+     */
+    private byte[] FileToBytes(File file){
         byte[] ret = null;
         try {
-            FileInputStream inputStream = new FileInputStream(file);
-            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-
-            byte[] buffer = new byte[0xffff];
-            for(int r = inputStream.read(buffer); r != -1; r = inputStream.read(buffer)){
-                byteArrayOutputStream.write(buffer, 0, r);
-            }
-            ret = byteArrayOutputStream.toByteArray();
-            byteArrayOutputStream.close();
-            inputStream.close();
-        } catch (FileNotFoundException e) {
-            System.err.println(file + " Could not be found! [404... :( ] " + e.getMessage());
+            ret = Files.readAllBytes(file.toPath());
+        } catch (NoSuchFileException e) {
+            error(file + " Could not be found! [404... :( ]", e);
         } catch (IOException e) {
-            Log.error(TAG, "io_error", e);
+            error("io_error", e);
         }
         return ret;
     }
@@ -0,0 +1,152 @@
+package io.minAR.core;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The index of a streamed archive, much like the central directory of a zip.
+ * Maps the path of every file in the archive to the offset and length of its entry, along with its size and checksum once extracted,
+ * so that a single file can be read without reading the rest of the archive.
+ * @author nikhil
+ * @since 0.0.2
+ */
+public class ArchiveIndex {
+
+    /**
+     * A single file of the archive
+     */
+    public static class Entry {
+        /** The internal path of the file */
+        public final String path;
+        /** The position of the entry in the archive */
+        public final long offset;
+        /** The number of bytes the entry spans in the archive */
+        public final long length;
+        /** The size of the file once extracted */
+        public final long raw_length;
+        /** The CRC32 of the file once extracted */
+        public final long checksum;
+        /** The position of the file within the solid block the entry holds, -1 if the entry holds the file alone */
+        public final long block_offset;
+        /** The id of the codec of the entry, -1 if it is that of the archive */
+        public final int codec;
+        /** The lengths of the {@link Parts} of the entry, null if it is a single part */
+        final long[] parts;
+        /** The CRC32 of the entry as it is stored in the archive, -1 if not recorded */
+        public final long entry_checksum;
+
+        Entry(String path, long offset, long length, long raw_length, long checksum, long block_offset, int codec, long[] parts, long entry_checksum){
+            this.path = path;
+            this.offset = offset;
+            this.length = length;
+            this.raw_length = raw_length;
+            this.checksum = checksum;
+            this.block_offset = block_offset;
+            this.codec = codec;
+            this.parts = parts;
+            this.entry_checksum = entry_checksum;
+        }
+
+        @Override
+        public String toString() {
+            return "[path:" + path + " offset:" + offset + " length:" + length + " raw_length:" + raw_length
+                    + (block_offset >= 0 ? " block_offset:" + block_offset : "") + "]";
+        }
+    }
+
+    private final ArrayList<Entry> entries;
+
+    private ArchiveIndex(ArrayList<Entry> entries){
+        this.entries = entries;
+    }
+
+    /**
+     * @return all the entries of the index, in the order of the archive
+     */
+    public List<Entry> getEntries(){
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Find the entry of the file with the given path
+     * @param path the internal path of the file, the leading separator is optional
+     * @return the entry, null if the archive has no such file
+     */
+    public Entry get(String path){
+        String normalized = normalize(path);
+        for(Entry entry : entries){
+            if(normalize(entry.path).equals(normalized)) return entry;
+        }
+        return null;
+    }
+
+    /**
+     * Internal paths are recorded with the separator of the system that created the archive, and begin with it.
+     */
+    static String normalize(String path){
+        String ret = path.replace('\\', '/');
+        return ret.startsWith("/") ? ret : "/" + ret;
+    }
+
+    /**
+     * Writes the index of the given nodes
+     * @param os the stream to contain the index, it is not closed
+     * @param nodes the nodes of the files in the archive, their offsets, lengths and checksums already set
+     * @param features the features of the archive, the offsets of the files within {@link Header#SOLID} blocks,
+     *                 the codecs of {@link Header#ADAPTIVE} entries, the {@link Header#SPLIT} parts and the {@link Header#CHECKED} checksums of the entries
+     *                 are written only if the archive has them
+     */
+    static void write(OutputStream os, List<? extends Node<?>> nodes, int features) throws IOException {
+        boolean solid = (features & Header.SOLID) != 0, adaptive = (features & Header.ADAPTIVE) != 0, split = (features & Header.SPLIT) != 0;
+        boolean checked = (features & Header.CHECKED) != 0;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+        out.writeInt(nodes.size());
+        for(Node<?> node : nodes){
+            out.writeUTF(node.path);
+            out.writeLong(node.offset);
+            out.writeLong(node.length);
+            out.writeLong(node.raw_length);
+            out.writeInt((int) node.checksum);
+            if(solid) out.writeLong(node.block_offset);
+            if(adaptive) out.writeByte(node.codec);
+            if(split) {
+                out.writeInt(node.parts == null ? 0 : node.parts.length);
+                if(node.parts != null) for(long length : node.parts) out.writeLong(length);
+            }
+            if(checked) out.writeLong(node.entry_checksum);
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads the index
+     * @param is the stream positioned at the index
+     * @param features the features of the archive
+     * @return the index
+     */
+    static ArchiveIndex read(InputStream is, int features) throws IOException {
+        boolean solid = (features & Header.SOLID) != 0, adaptive = (features & Header.ADAPTIVE) != 0, split = (features & Header.SPLIT) != 0;
+        boolean checked = (features & Header.CHECKED) != 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+        int size = in.readInt();
+        ArrayList<Entry> entries = new ArrayList<>(size);
+        for(int x = 0; x < size; x++){
+            String path = in.readUTF();
+            long offset = in.readLong(), length = in.readLong(), raw_length = in.readLong(), checksum = in.readInt() & 0xffffffffL;
+            long block_offset = solid ? in.readLong() : -1;
+            int codec = adaptive ? in.readByte() : -1;
+            long[] parts = null;
+            int count = split ? in.readInt() : 0;
+            if(count > 0) {
+                parts = new long[count];
+                for(int y = 0; y < count; y++) parts[y] = in.readLong();
+            }
+            long entry_checksum = checked ? in.readLong() : -1;
+            entries.add(new Entry(path, offset, length, raw_length, checksum, block_offset, codec, parts, entry_checksum));
+        }
+        return new ArchiveIndex(entries);
+    }
+
+}
@@ -0,0 +1,412 @@
+package io.minAR.core;
+
+import io.minAR.util.Buffers;
+import io.minAR.util.Codec;
+import io.minAR.util.Serializer;
+import io.minAR.util.Streams;
+import io.minAR.util.Workers;
+
+import javax.crypto.SecretKey;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A read-only view of a streamed archive, backed by memory mappings of the archive file.
+ * Nothing but the header is read up front; the index and the file tree are read on first use,
+ * and the entries are exposed as slices of the mapped file which are decrypted and decompressed only when read.
+ * Hence listing the archive, or reading a few entries of it, touches only the pages holding them.
+ * <p>
+ * The archive is mapped in segments of at most {@link #SEGMENT_SIZE} bytes. Mappings are released by the garbage collector, not on {@link #close()}.
+ * @author nikhil
+ * @see ArchiveIndex
+ * @since 0.0.2
+ */
+public class ArchiveReader implements Closeable {
+
+    /** The largest region of the archive mapped at once */
+    static final long SEGMENT_SIZE = 1L << 30;
+
+    private final Path ar_file;
+    private final FileChannel channel;
+    private final Header header;
+    private final SecretKey secretKey;
+    private final Codec codec;
+    private final MappedByteBuffer[] segments;
+    private ArchiveIndex index;
+    private NodeTree<File> filetree;
+    private CompactTree compact_tree;
+
+    /**
+     * Opens the archive for reading
+     * @param ar_file the path to the archive
+     * @param secretKey if encrypted, the {@link SecretKey} to decrypt, null otherwise
+     * @throws IOException if the archive could not be opened or is not a streamed archive
+     */
+    public ArchiveReader(Path ar_file, SecretKey secretKey) throws IOException {
+        this(ar_file, true, secretKey);
+    }
+
+    /**
+     * Opens the archive for reading
+     * @param ar_file the path to the archive
+     * @param compressed whether the archive was compressed or not, if written before the {@link Header}
+     * @param secretKey if encrypted, the {@link SecretKey} to decrypt, null otherwise
+     * @throws IOException if the archive could not be opened or is not a streamed archive
+     */
+    public ArchiveReader(Path ar_file, boolean compressed, SecretKey secretKey) throws IOException {
+        this.ar_file = ar_file;
+        this.secretKey = secretKey;
+        channel = FileChannel.open(ar_file, StandardOpenOption.READ);
+        try {
+            header = Header.read(channel, ar_file, compressed, secretKey != null);
+            if(!header.isStreamed()) throw new IOException(ar_file + " is not a streamed archive");
+            if(header.isEncrypted() && secretKey == null) throw new IOException(ar_file + " is encrypted, a key is required");
+            codec = Codec.forId(header.codec);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        segments = new MappedByteBuffer[(int) ((header.end + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+    }
+
+    /**
+     * @return whether the entries of the archive are compressed or not
+     */
+    public boolean isCompressed(){
+        return header.isCompressed();
+    }
+
+    /**
+     * @return the codec the entries of the archive are compressed with
+     */
+    public Codec getCodec(){
+        return codec;
+    }
+
+    /**
+     * @return whether the entries of the archive are encrypted or not
+     */
+    public boolean isEncrypted(){
+        return header.isEncrypted();
+    }
+
+    Header getHeader(){
+        return header;
+    }
+
+    SecretKey getSecretKey(){
+        return secretKey;
+    }
+
+    /**
+     * The index of the archive, read on first use
+     * @return the index
+     * @throws IOException if the archive was streamed without an index
+     */
+    public synchronized ArchiveIndex getIndex() throws IOException {
+        if(index == null) {
+            if(header.index < 0) throw new IOException(ar_file + " was streamed without an index");
+            try (InputStream inputStream = decrypt(Streams.of(map(header.index, header.indexLength())))){
+                index = ArchiveIndex.read(inputStream, header.features);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return the entries of all the files in the archive
+     * @see ArchiveIndex#getEntries()
+     */
+    public List<ArchiveIndex.Entry> getEntries() throws IOException {
+        return getIndex().getEntries();
+    }
+
+    /**
+     * @param path the internal path of the file
+     * @return the entry of the file, null if the archive has no such file
+     * @see ArchiveIndex#get(String)
+     */
+    public ArchiveIndex.Entry get(String path) throws IOException {
+        return getIndex().get(path);
+    }
+
+    /**
+     * The file tree of the archive, read from the trailer on first use.
+     * The nodes hold no data, their contents are read through {@link #open(Node)}.
+     * @return the file tree
+     */
+    public synchronized NodeTree<File> getFileTree() throws IOException {
+        if(filetree == null) {
+            try (InputStream inputStream = decrypt(Streams.of(map(header.trailer, header.trailerLength())))){
+                filetree = Serializer.deserializeTrailer(inputStream);
+            }
+        }
+        return filetree;
+    }
+
+    /**
+     * The file tree of the archive in its compact form, read from the trailer on first use without a {@link Node} kept per file;
+     * for walking or looking up the files of large archives, whose contents are read through the index.
+     * @return the file tree
+     * @see CompactTree
+     */
+    public synchronized CompactTree getCompactTree() throws IOException {
+        if(compact_tree == null) {
+            try (InputStream inputStream = decrypt(Streams.of(map(header.trailer, header.trailerLength())))){
+                compact_tree = Serializer.deserializeTrailer(inputStream, CompactTree.class);
+            }
+        }
+        return compact_tree;
+    }
+
+    /**
+     * The entry as it is stored in the archive, i.e, compressed and encrypted.
+     * @param entry the entry
+     * @return a read-only slice of the mapped archive
+     */
+    public ByteBuffer getRaw(ArchiveIndex.Entry entry) throws IOException {
+        return map(entry.offset, entry.length);
+    }
+
+    /**
+     * Opens the contents of the entry, they are decrypted and decompressed as they are read
+     * @param entry the entry
+     * @return the stream of the contents
+     */
+    public InputStream open(ArchiveIndex.Entry entry) throws IOException {
+        return open(entry.offset, entry.length, entry.block_offset, entry.raw_length, entry.codec, entry.parts);
+    }
+
+    /**
+     * Opens the contents of the node of the file tree
+     * @param node a node of {@link #getFileTree()}
+     * @return the stream of the contents
+     */
+    public InputStream open(Node<?> node) throws IOException {
+        return open(node.offset, node.length, node.block_offset, node.raw_length, node.codec, node.parts);
+    }
+
+    /**
+     * Reads the contents of the entry, checking them against the checksum in the index
+     * @param entry the entry
+     * @param out the stream to contain the contents, it is not closed
+     * @throws IOException if the contents do not match the checksum
+     */
+    public void extract(ArchiveIndex.Entry entry, OutputStream out) throws IOException {
+        CheckedOutputStream checked = new CheckedOutputStream(out, new CRC32());
+        byte[] buffer = Buffers.take();
+        try (InputStream inputStream = open(entry)){
+            Streams.copy(inputStream, checked, buffer);
+        } finally {
+            Buffers.release(buffer);
+        }
+        checked.flush();
+        if(checked.getChecksum().getValue() != entry.checksum) throw new IOException(entry.path + " does not match its checksum");
+    }
+
+    /**
+     * Transfers the entry of the node, as it is stored in the archive, into the channel; without copying it onto the heap
+     * @param node a node of {@link #getFileTree()}
+     * @param out the channel to be written to, it is not closed
+     * @return the number of bytes transferred
+     */
+    long copyRaw(Node<?> node, WritableByteChannel out) throws IOException {
+        Streams.transfer(channel, node.offset, node.length, out);
+        return node.length;
+    }
+
+    /**
+     * Computes the CRC32 of the entry of the node, as it is stored in the archive
+     * @param node a node of {@link #getFileTree()}
+     */
+    long entryChecksum(Node<?> node) throws IOException {
+        return checksumRaw(node.offset, node.length);
+    }
+
+    /**
+     * Verifies every entry of the archive on the pool shared by every operation, without writing anything out.
+     * The entries whose checksums are recorded, see {@link Header#CHECKED}, are checked as they are stored; they are neither decrypted nor decompressed,
+     * hence are checked as fast as they are read. Every other entry, and every entry if <code>contents</code> is set, is extracted in memory
+     * and checked against the checksum of its file.
+     * An entry shared by several files, i.e, a solid block or the contents of duplicates, is checked as stored once; all of its files are damaged if it is.
+     * The file tree in the trailer is read as well, in its compact form; if it is damaged the root, "/", is listed as damaged.
+     * @param threads the number of threads the entries are checked on
+     * @param contents whether the contents of every file are checked too, not only the entries as they are stored
+     * @return the outcome, listing the files damaged
+     * @throws IOException if the index of the archive cannot be read, hence its files cannot be told apart
+     */
+    public Verification verify(int threads, boolean contents) throws IOException {
+        return verify(null, threads, contents);
+    }
+
+    /**
+     * Verifies every entry of the archive on the executor, at most the given number at once
+     * @param executor the executor the entries are checked on, null checks them on the pool shared by every operation
+     * @see #verify(int, boolean)
+     * @see Workers
+     */
+    public Verification verify(Executor executor, int threads, boolean contents) throws IOException {
+        if(threads <= 0) throw new IllegalArgumentException("Thread count must be positive: " + threads);
+        long start = System.nanoTime();
+        List<ArchiveIndex.Entry> entries = getEntries();
+        // The files of every entry, keyed by its offset
+        LinkedHashMap<Long, List<ArchiveIndex.Entry>> by_offset = new LinkedHashMap<>();
+        for(ArchiveIndex.Entry entry : entries) by_offset.computeIfAbsent(entry.offset, offset -> new ArrayList<>()).add(entry);
+        ConcurrentHashMap<String, String> damaged = new ConcurrentHashMap<>();
+        AtomicLong bytes = new AtomicLong();
+        try (Workers pool = new Workers(executor, threads)){
+            ArrayList<Future<?>> checks = new ArrayList<>();
+            for(List<ArchiveIndex.Entry> files : by_offset.values()){
+                checks.add(pool.submit(() -> {
+                    String problem = check(files, contents, bytes);
+                    if(problem != null) for(ArchiveIndex.Entry file : files) damaged.putIfAbsent(file.path, problem);
+                    return null;
+                }));
+            }
+            for(Future<?> check : checks){
+                try {
+                    check.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException(e.getMessage());
+                } catch (ExecutionException e) {
+                    throw new IOException(e.getCause());
+                }
+            }
+        }
+        LinkedHashMap<String, String> ret = new LinkedHashMap<>();
+        try {
+            getCompactTree();
+        } catch (IOException | RuntimeException e) {
+            ret.put("/", "The file tree cannot be read: " + e);
+        }
+        for(ArchiveIndex.Entry entry : entries){
+            String problem = damaged.get(entry.path);
+            if(problem != null) ret.put(entry.path, problem);
+        }
+        return new Verification(ar_file, entries.size(), by_offset.size(), bytes.get(), System.nanoTime() - start, ret);
+    }
+
+    /**
+     * Checks the entry of the files
+     * @param files the files sharing the entry
+     * @return what is wrong with the entry, null if nothing is
+     */
+    private String check(List<ArchiveIndex.Entry> files, boolean contents, AtomicLong bytes){
+        ArchiveIndex.Entry first = files.get(0);
+        if(first.offset < 0 || first.length < 0 || first.offset + first.length > header.trailer) {
+            return "The entry lies beyond the entries of the archive, at " + first.offset + " for " + first.length + " bytes";
+        }
+        try {
+            if(first.entry_checksum >= 0) {
+                bytes.addAndGet(first.length);
+                if(checksumRaw(first.offset, first.length) != first.entry_checksum) return "The entry does not match its checksum";
+                if(!contents) return null;
+            }
+            // Duplicates share their position within the entry too, their contents are checked once
+            HashSet<Long> checked = new HashSet<>();
+            for(ArchiveIndex.Entry file : files){
+                if(checked.add(file.block_offset)) extract(file, DISCARD);
+            }
+            if(first.entry_checksum < 0) bytes.addAndGet(first.length);
+        } catch (IOException | RuntimeException e) {
+            return String.valueOf(e.getMessage());
+        }
+        return null;
+    }
+
+    /** Discards the contents of the entries verified */
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {}
+
+        @Override
+        public void write(byte[] b, int off, int len) {}
+    };
+
+    /**
+     * Computes the CRC32 of the region of the archive, straight off the mapping
+     */
+    private long checksumRaw(long offset, long length) throws IOException {
+        CRC32 crc = new CRC32();
+        if(length <= 0) return crc.getValue();
+        if(length <= Integer.MAX_VALUE) {
+            crc.update(map(offset, length));
+            return crc.getValue();
+        }
+        // Too large to be mapped at once
+        byte[] buffer = Buffers.take();
+        try (InputStream inputStream = Streams.slice(channel, offset, length)){
+            for(int len = inputStream.read(buffer); len != -1; len = inputStream.read(buffer)) crc.update(buffer, 0, len);
+        } finally {
+            Buffers.release(buffer);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Opens an entry, if the file is part of a solid block, the block is decompressed up to the file and read only till its end;
+     * if the entry is split into {@link Parts}, they are read one after another
+     */
+    private InputStream open(long offset, long length, long block_offset, long raw_length, int codec, long[] parts) throws IOException {
+        if(length <= 0) return new ByteArrayInputStream(new byte[0]);
+        if(parts != null) return Parts.open(offset, parts, (part_offset, part_length) -> open(part_offset, part_length, -1, 0, codec, null));
+        // Entries too large to be mapped at once are read through the channel instead
+        InputStream raw = length > Integer.MAX_VALUE ? new BufferedInputStream(Streams.slice(channel, offset, length)) : Streams.of(map(offset, length));
+        InputStream ret = decrypt(raw);
+        ret = (codec < 0 ? this.codec : Codec.forId(codec)).decompressStream(ret);
+        if(block_offset < 0) return ret;
+        Streams.skipFully(ret, block_offset);
+        return Streams.limit(ret, raw_length);
+    }
+
+    private InputStream decrypt(InputStream inputStream) throws IOException {
+        return Extractor.entryStream(inputStream, header.isEncrypted() ? secretKey : null, header.cipher);
+    }
+
+    /**
+     * Maps the region of the archive, out of the segment containing it if it lies within one, else on its own.
+     */
+    private ByteBuffer map(long offset, long length) throws IOException {
+        int segment = (int) (offset / SEGMENT_SIZE);
+        long segment_start = segment * SEGMENT_SIZE;
+        if(offset + length > segment_start + SEGMENT_SIZE) {
+            if(length > Integer.MAX_VALUE) throw new IOException("Region of " + length + " bytes is too large to be mapped");
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, length).asReadOnlyBuffer();
+        }
+        ByteBuffer ret = segment(segment).duplicate();
+        ret.position((int) (offset - segment_start));
+        ret.limit((int) (offset - segment_start + length));
+        return ret.slice();
+    }
+
+    private synchronized MappedByteBuffer segment(int segment) throws IOException {
+        if(segments[segment] == null) {
+            long start = segment * SEGMENT_SIZE;
+            segments[segment] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, header.end - start));
+        }
+        return segments[segment];
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
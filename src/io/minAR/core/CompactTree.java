@@ -0,0 +1,303 @@
+package io.minAR.core;
+
+import io.minAR.core.NodeTree.Walk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A file tree held in flat arrays rather than in a {@link Node} per file, for walking and looking up trees of millions of files.
+ * The nodes are numbered from the root, 0, such that the children of every node are numbered one after another, and are recorded as a range.
+ * The name of every node is an index into a table of the distinct names, such that names shared by many files,
+ * as is common in backups, are held once. A node costs 24 bytes, its name aside.
+ * <p>
+ * The tree is built once, either from a {@link NodeTree} or straight from the trailer of a streamed archive, see {@link ArchiveReader#getCompactTree()},
+ * and is not changed after.
+ * @author nikhil
+ * @since 0.0.2
+ */
+public final class CompactTree {
+
+    /** The distinct names of the nodes, the root has the empty name */
+    private String[] names;
+    /** The index of the name of every node */
+    private int[] name;
+    private int[] parent;
+    /** The number of the first child of every node, and the number of its children */
+    private int[] first_child, child_count;
+    /** The size of the file of every node, -1 for directories */
+    private long[] length;
+    /** The number of nodes, those numbered but not added yet included */
+    private int count;
+
+    private final HashMap<String, Integer> name_index = new HashMap<>();
+    private final ArrayList<String> name_table = new ArrayList<>();
+
+    CompactTree(int capacity){
+        name = new int[capacity];
+        parent = new int[capacity];
+        first_child = new int[capacity];
+        child_count = new int[capacity];
+        length = new long[capacity];
+    }
+
+    /**
+     * Builds the tree of the nodes of the file tree, the terminal node is the root.
+     * Nodes with sub nodes are directories, the size of every other node is its <code>raw_length</code>.
+     * @param tree the file tree
+     * @return the tree
+     */
+    public static CompactTree of(NodeTree<?> tree){
+        CompactTree ret = new CompactTree(64);
+        // The nodes are added breadth first, those whose children are yet to be added are kept by number
+        ArrayList<Node<?>> nodes = new ArrayList<>();
+        nodes.add(tree.terminalNode);
+        ret.setRoot(tree.terminalNode);
+        for(int x = 0; x < ret.count; x++){
+            Node<?> node = nodes.get(x);
+            // The nodes already added are not referred to again
+            nodes.set(x, null);
+            if(node.sub_nodes == null) continue;
+            int child = ret.reserve(x, node.sub_nodes.size());
+            for(Node<?> sub_node : node.sub_nodes){
+                nodes.add(sub_node);
+                ret.set(child++, x, sub_node);
+            }
+        }
+        ret.trim();
+        return ret;
+    }
+
+    private static String nameOf(String path){
+        int start = Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\'));
+        return path.substring(start + 1);
+    }
+
+    /**
+     * Adds the root, numbered 0, before any other node
+     */
+    void setRoot(Node<?> node){
+        count = 1;
+        set(0, -1, node);
+    }
+
+    /**
+     * Numbers the children of the node one after another, after every node numbered so far; they are added by {@link #set(int, int, Node)}
+     * @return the number of the first child
+     */
+    int reserve(int node, int children){
+        first_child[node] = count;
+        child_count[node] = children;
+        count += children;
+        ensureCapacity(count);
+        return first_child[node];
+    }
+
+    /**
+     * Adds the node under the number reserved for it, the name is that of its path; nodes with a list of sub nodes are directories,
+     * the size of every other node is its <code>raw_length</code>. Its children, if any, are numbered by {@link #reserve(int, int)}
+     */
+    void set(int number, int parent_node, Node<?> node){
+        String node_name = nameOf(node.path != null ? node.path : "");
+        Integer index = name_index.get(node_name);
+        if(index == null) {
+            index = name_table.size();
+            name_table.add(node_name);
+            name_index.put(node_name, index);
+        }
+        name[number] = index;
+        parent[number] = parent_node;
+        length[number] = node.sub_nodes != null ? -1 : node.raw_length;
+    }
+
+    private void ensureCapacity(int capacity){
+        if(capacity <= name.length) return;
+        capacity = Math.max(capacity, name.length * 2);
+        name = Arrays.copyOf(name, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        first_child = Arrays.copyOf(first_child, capacity);
+        child_count = Arrays.copyOf(child_count, capacity);
+        length = Arrays.copyOf(length, capacity);
+    }
+
+    void trim(){
+        name = Arrays.copyOf(name, count);
+        parent = Arrays.copyOf(parent, count);
+        first_child = Arrays.copyOf(first_child, count);
+        child_count = Arrays.copyOf(child_count, count);
+        length = Arrays.copyOf(length, count);
+        names = name_table.toArray(new String[0]);
+        name_table.clear();
+        name_table.trimToSize();
+    }
+
+    /**
+     * @return the number of nodes, the root included
+     */
+    public int size(){
+        return count;
+    }
+
+    /**
+     * @return the number of distinct names
+     */
+    public int distinctNames(){
+        return names.length;
+    }
+
+    public String name(int node){
+        return names[name[node]];
+    }
+
+    /**
+     * @return the number of the parent of the node, -1 for the root
+     */
+    public int parent(int node){
+        return parent[node];
+    }
+
+    /**
+     * @return the number of the first child of the node, its children are numbered from it up to {@link #childCount(int)} more
+     */
+    public int firstChild(int node){
+        return first_child[node];
+    }
+
+    public int childCount(int node){
+        return child_count[node];
+    }
+
+    public boolean isDirectory(int node){
+        return length[node] < 0;
+    }
+
+    /**
+     * @return the size of the file of the node, -1 for directories
+     */
+    public long length(int node){
+        return length[node];
+    }
+
+    /**
+     * @return the path of the node, as in {@link Node#path}; "/" for the root
+     */
+    public String path(int node){
+        if(node == 0) return "/";
+        int depth = 0;
+        for(int x = node; x > 0; x = parent[x]) depth++;
+        String[] segments = new String[depth];
+        for(int x = node; x > 0; x = parent[x]) segments[--depth] = names[name[x]];
+        StringBuilder ret = new StringBuilder();
+        for(String segment : segments) ret.append('/').append(segment);
+        return ret.toString();
+    }
+
+    /**
+     * Looks up a node by its path, descending from the root one name at a time
+     * @param path the path, as in {@link Node#path}
+     * @return the number of the node, -1 if there is none
+     */
+    public int find(String path){
+        int node = 0;
+        for(String segment : path.split("[/\\\\]")){
+            if(segment.isEmpty()) continue;
+            Integer index = name_index.get(segment);
+            if(index == null) return -1;
+            int found = -1;
+            for(int x = first_child[node]; x < first_child[node] + child_count[node]; x++){
+                if(name[x] == index) {
+                    found = x;
+                    break;
+                }
+            }
+            if(found < 0) return -1;
+            node = found;
+        }
+        return node;
+    }
+
+    /**
+     * Contains methods invoked upon every node while walking through the tree, both default to {@link Walk#CONTINUE}
+     * @see #walk(Visitor)
+     */
+    public interface Visitor {
+        /**
+         * Invoked upon the node before its children
+         * @param depth the depth of the node, 0 for the root
+         */
+        default Walk preVisit(int node, int depth) {
+            return Walk.CONTINUE;
+        }
+
+        /**
+         * Invoked upon the node after its children, unless they were skipped
+         * @param depth the depth of the node, 0 for the root
+         */
+        default Walk postVisit(int node, int depth) {
+            return Walk.CONTINUE;
+        }
+    }
+
+    /**
+     * Walk the tree depth first from the root, with a stack of its own; every node is visited before and after its children
+     * @param visitor the visitor, which may skip the children of a node or end the walk
+     * @return false if the walk was ended by the visitor, true otherwise
+     */
+    public boolean walk(Visitor visitor){
+        // The node being visited at every depth, and the next of its children
+        int[] nodes = new int[16], next = new int[16];
+        int depth = 0;
+        Walk walk = visitor.preVisit(0, 0);
+        if(walk == Walk.TERMINATE) return false;
+        if(walk == Walk.SKIP_SUBTREE) return true;
+        next[0] = first_child[0];
+        while (depth >= 0) {
+            int node = nodes[depth];
+            if(next[depth] == first_child[node] + child_count[node]) {
+                if(visitor.postVisit(node, depth) == Walk.TERMINATE) return false;
+                depth--;
+                continue;
+            }
+            int child = next[depth]++;
+            walk = visitor.preVisit(child, depth + 1);
+            if(walk == Walk.TERMINATE) return false;
+            if(walk == Walk.SKIP_SUBTREE) continue;
+            if(++depth == nodes.length) {
+                nodes = Arrays.copyOf(nodes, depth * 2);
+                next = Arrays.copyOf(next, depth * 2);
+            }
+            nodes[depth] = child;
+            next[depth] = first_child[child];
+        }
+        return true;
+    }
+
+    /**
+     * @return the numbers of the files beneath the node, directories excluded, in the order of a walk
+     */
+    public int[] files(int node){
+        int[] ret = new int[16];
+        int found = 0;
+        int[] stack = new int[16];
+        int top = 0;
+        stack[top++] = node;
+        while (top > 0) {
+            int current = stack[--top];
+            if(!isDirectory(current)) {
+                if(found == ret.length) ret = Arrays.copyOf(ret, found * 2);
+                ret[found++] = current;
+                continue;
+            }
+            if(top + child_count[current] > stack.length) stack = Arrays.copyOf(stack, Math.max(stack.length * 2, top + child_count[current]));
+            // Pushed last to first, so that they are taken first to last
+            for(int x = first_child[current] + child_count[current] - 1; x >= first_child[current]; x--) stack[top++] = x;
+        }
+        return Arrays.copyOf(ret, found);
+    }
+
+    @Override
+    public String toString() {
+        return "[nodes:" + count + " distinct_names:" + (names != null ? names.length : name_table.size()) + "]";
+    }
+}
@@ -1,19 +1,30 @@
 package io.minAR.core;
 
 import com.esotericsoftware.minlog.Log;
-import io.minAR.util.Compressor;
+import io.minAR.util.Codec;
 import io.minAR.util.Crypt;
-import io.minAR.util.NeedsOptimisation;
+import io.minAR.util.Metrics;
 import io.minAR.util.Serializer;
+import io.minAR.util.Streams;
+import io.minAR.util.Workers;
 
 import javax.crypto.SecretKey;
-import java.io.ByteArrayInputStream;
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.nio.file.Files;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 
 /**
  * Core class, involved in retrieving and re-creating the internal file tree, and extraction of data from the nodes of the tree
@@ -29,6 +40,25 @@ public class Extractor {
 
     static final String TAG = Extractor.class.getSimpleName();
     Analyzer analyzer;
+    /** The key to decrypt the entries of a streamed archive with, they are decrypted only while being generated */
+    private SecretKey secretKey;
+    /** Describes how the archive was written */
+    private Header header;
+    /** The size of the buffers used while extracting a streamed archive */
+    int buffer_size = Streams.DEFAULT_BUFFER_SIZE;
+    /** The number of threads the files are written on, 1 writes them on the calling thread */
+    int threads = 1;
+    /** The executor the files are written on, null writes them on the pool shared by every operation */
+    private Executor executor;
+    private final LinkedHashMap<String, Long> phase_timings = new LinkedHashMap<>();
+    /** Records the files extracted, and the time spent extracting them */
+    private Metrics metrics = new Metrics();
+    /** Whether the extraction is to be left unfinished, checked before every file */
+    private BooleanSupplier cancelled = () -> false;
+    /** The number of files left unwritten once cancelled */
+    private final AtomicInteger skipped = new AtomicInteger();
+    /** The errors met while extracting the archive, they are logged too */
+    private final List<Exception> errors = Collections.synchronizedList(new ArrayList<>());
 
     /**
      * Sets up the directory for use, creates one if it doesn't exist
@@ -41,59 +71,427 @@ public class Extractor {
             if(!dir.exists()) dir.mkdirs();
             this.ar_file = Paths.get(ar_file);
         } catch (IOException e) {
-            Log.error(TAG, "io_error", e);
+            error("io_error", e);
         }
     }
 
+    /**
+     * Set the size of the buffers used while extracting a streamed archive
+     * @param buffer_size the size of the buffers, in bytes
+     */
+    public void setBufferSize(int buffer_size){
+        if(buffer_size <= 0) throw new IllegalArgumentException("Buffer size must be positive: " + buffer_size);
+        this.buffer_size = buffer_size;
+    }
+
     /**
      * Analyzes the archive in order to re-create the file tree
+     * For a streamed archive, only the trailer is read; the contents of the files are left in the archive till {@link #generate()}.
+     * The archive is described by its {@link Header}, the flags are used only for archives written before it was introduced.
      * @param compressed whether the archive was compressed or not
      * @param ENCRYPTED whether the archive is encrypted or not
      * @param secretKey if encrypted, the {@link SecretKey} to decrypt
      * @see Analyzer
      */
-    @NeedsOptimisation(where = "Checks for compression and encryption do not go hand in hand. Unnecessary input streams")
     public void analyze(boolean compressed, boolean ENCRYPTED, SecretKey secretKey){
-        try {
-            byte[] serialized_data = null;
-            if(ENCRYPTED){
-                byte[] encrypted = Files.readAllBytes(ar_file);
-                serialized_data = Crypt.decrypt(encrypted, secretKey);
+        this.secretKey = secretKey;
+        NodeTree<File> filetree;
+        Codec codec;
+        try (FileChannel channel = FileChannel.open(ar_file, StandardOpenOption.READ)){
+            header = Header.read(channel, ar_file, compressed, ENCRYPTED);
+            if(header.isEncrypted() && secretKey == null) throw new IOException(ar_file + " is encrypted, a key is required");
+            codec = Codec.forId(header.codec);
+            if(header.isStreamed()) {
+                try (InputStream inputStream = entryStream(Streams.slice(channel, header.trailer, header.trailerLength()), secretKey, header.cipher)){
+                    filetree = Serializer.deserializeTrailer(inputStream);
+                }
             } else {
-                serialized_data = Files.readAllBytes(ar_file);
+                // Build the file tree from the serialized data, decrypting as it is read
+                InputStream data = new BufferedInputStream(Streams.slice(channel, header.trailer, header.end - header.trailer), buffer_size);
+                try (InputStream inputStream = entryStream(data, header.isEncrypted() ? secretKey : null, header.cipher)){
+                    filetree = Serializer.deserializeTree(inputStream);
+                }
             }
-            // Build the file tree from the serialized data
-            NodeTree<File> filetree = Serializer.deserialize(serialized_data, NodeTree.class);
-            analyzer = Analyzer.instance(filetree, compressed, ENCRYPTED);
         } catch (IOException e) {
-            Log.error(TAG, "io_error", e);
+            error("io_error", e);
+            return;
+        }
+        analyzer = Analyzer.instance(filetree, header.isCompressed(), header.isEncrypted());
+        analyzer.STREAMED = header.isStreamed();
+        analyzer.setCodec(codec);
+    }
+
+    /**
+     * Wraps the stream of an entry such that it is decrypted as it is read, if a key is given
+     * @param cipher the cipher of the archive, as recorded in its {@link Header}
+     */
+    static InputStream entryStream(InputStream inputStream, SecretKey secretKey, int cipher) throws IOException {
+        if(secretKey == null || cipher == Header.CIPHER_NONE) return inputStream;
+        if(cipher == Header.CIPHER_DES) return Crypt.decryptLegacy(inputStream, secretKey);
+        return Crypt.decryptChunked(inputStream, secretKey);
+    }
+
+    /**
+     * Extracts a single file out of a streamed archive, without reading the rest of the archive.
+     * Only the header and the {@link ArchiveIndex} are read to locate the entry, which is then decrypted and decompressed into the stream.
+     * @param ar_file the path to the archive
+     * @param path the internal path of the file
+     * @param out the stream to contain the contents of the file, it is not closed
+     * @param compressed whether the archive was compressed or not, if written before the {@link Header}
+     * @param secretKey if encrypted, the {@link SecretKey} to decrypt, null otherwise
+     * @return whether the archive contains the file or not
+     * @throws IOException if the archive has no index, or the extracted contents do not match the checksum in the index
+     * @see ArchiveReader
+     */
+    public static boolean extractEntry(Path ar_file, String path, OutputStream out, boolean compressed, SecretKey secretKey) throws IOException {
+        try (ArchiveReader reader = new ArchiveReader(ar_file, compressed, secretKey)){
+            ArchiveIndex.Entry entry = reader.get(path);
+            if(entry == null) return false;
+            reader.extract(entry, out);
+            return true;
         }
     }
 
     /**
      * Generates the various files, directories contained in the archive after traversing through the re-created file tree
+     * If more than one thread is set, the directories are created first and the files are then written in parallel.
+     * @see #setThreads(int)
      */
     public void generate(){
-        analyzer.filetree.setListener((node, max) -> {
-            if(node.sub_nodes != null){
-                mkdir(node.path);
-            } else {
-                try(FileOutputStream fos = new FileOutputStream(mkfile(node.path))) {
-                    if(node.getData() != null){ // If for some reason the file contains no data
-                        if (analyzer.COMPRESSED) {
-                            ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(node.getData());
-                            fos.write(Compressor.decompress(byteArrayInputStream));
-                            byteArrayInputStream.close();
-                        } else {
-                            fos.write(node.data);
-                        }
-                    } else System.out.println(node.path);
-                } catch (IOException e) {
-                    Log.error(TAG, "io_error", e);
+        try (FileChannel channel = analyzer.STREAMED ? FileChannel.open(ar_file, StandardOpenOption.READ) : null){
+            expect();
+            if(threads > 1) {
+                generateParallel(channel);
+                return;
+            }
+            byte[] buffer = new byte[buffer_size];
+            BlockCursor cursor = new BlockCursor(channel);
+            analyzer.filetree.setListener((node, max) -> {
+                if(node.sub_nodes != null){
+                    mkdir(node.path);
+                } else if(cancelled.getAsBoolean()) {
+                    skipped.incrementAndGet();
+                } else {
+                    try {
+                        writeFile(node, mkfile(node.path), channel, buffer, cursor);
+                    } catch (IOException e) {
+                        error("io_error", e);
+                    }
                 }
+            });
+            analyzer.filetree.traverse();
+            cursor.close();
+        } catch (IOException e) {
+            error("io_error", e);
+        } finally {
+            if(skipped.get() > 0) error("Left unfinished", new InterruptedIOException("Cancelled, " + skipped.get() + " files not extracted"));
+            metrics.jobDone();
+        }
+    }
+
+    /**
+     * Records the files about to be extracted in the {@link #metrics}
+     */
+    private void expect(){
+        long[] expected = new long[2];
+        analyzer.filetree.setListener((node, max) -> {
+            if(node.sub_nodes != null) return;
+            expected[0]++;
+            expected[1] += node.raw_length > 0 ? node.raw_length : 0;
+        });
+        analyzer.filetree.traverse();
+        metrics.expect(expected[0], expected[1]);
+    }
+
+    /**
+     * Creates, or truncates, the file and writes the contents of the node into it; recording the file in the {@link #metrics}
+     */
+    private void writeFile(Node<File> node, File file, FileChannel channel, byte[] buffer, BlockCursor cursor) throws IOException {
+        long start = System.nanoTime();
+        long written;
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            writeEntry(node, fos, channel, buffer, cursor);
+            written = fos.getChannel().position();
+        }
+        metrics.record(Metrics.Stage.EXTRACT, written, System.nanoTime() - start);
+        // The files of a solid block share its entry, it is counted once
+        long length = channel == null ? (node.getData() != null ? node.getData().length : 0) : node.block_offset > 0 ? 0 : Math.max(0, node.length);
+        metrics.fileDone(node.path, written, length);
+    }
+
+    /**
+     * Generates the archive in three phases, each of which is timed; the nodes are listed, all directories are created,
+     * then the files are decompressed and written on {@link #threads} of the {@link #executor}.
+     * The files of a solid block are written one after another by a single task, so that the block is decompressed once;
+     * the {@link Parts} of a split file are each written by a task of their own, at their position within the file.
+     * @param channel the channel of a streamed archive, null otherwise
+     */
+    private void generateParallel(FileChannel channel){
+        phase_timings.clear();
+        long start = System.nanoTime();
+        ArrayList<Node<File>> files = new ArrayList<>();
+        ArrayList<Node<File>> directories = new ArrayList<>();
+        LinkedHashMap<Long, List<Node<File>>> groups = new LinkedHashMap<>();
+        ArrayList<Node<File>> split = new ArrayList<>();
+        analyzer.filetree.setListener((node, max) -> {
+            if(node.sub_nodes != null) directories.add(node);
+            else {
+                files.add(node);
+                // Files of a solid block share its offset, every other file is a group of its own
+                if(channel != null && node.parts != null && !isDirect(node)) split.add(node);
+                else if(channel != null && node.block_offset >= 0) groups.computeIfAbsent(node.offset, offset -> new ArrayList<>()).add(node);
+                else groups.put(-(long) files.size(), Collections.singletonList(node));
             }
         });
         analyzer.filetree.traverse();
+        start = timePhase("list", start);
+
+        for(Node<File> node : directories) mkdir(node.path);
+        start = timePhase("mkdir", start);
+
+        ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[buffer_size]);
+        ArrayList<Future<?>> tasks = new ArrayList<>(groups.size());
+        ArrayList<FileChannel> targets = new ArrayList<>(split.size());
+        Workers pool = new Workers(executor, threads);
+        try {
+            for(Node<File> node : split) submitParts(node, channel, pool, buffers, tasks, targets);
+            for(List<Node<File>> group : groups.values()) tasks.add(pool.submit(() -> {
+                BlockCursor cursor = new BlockCursor(channel);
+                for(Node<File> node : group){
+                    if(cancelled.getAsBoolean()) {
+                        skipped.incrementAndGet();
+                        continue;
+                    }
+                    // Opening the stream creates or truncates the file, the parent directories already exist
+                    try {
+                        writeFile(node, new File(dir, node.path), channel, buffers.get(), cursor);
+                    } catch (IOException e) {
+                        error("io_error " + node.path, e);
+                    }
+                }
+                cursor.close();
+                return null;
+            }));
+            for(Future<?> task : tasks) task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error("interrupted", e);
+        } catch (ExecutionException e) {
+            error(e.getMessage(), e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+        } finally {
+            pool.close();
+            for(FileChannel target : targets){
+                try {
+                    target.close();
+                } catch (IOException e) {
+                    error("io_error", e);
+                }
+            }
+        }
+        timePhase("write", start);
+        Log.info(TAG, "Extracted " + files.size() + " files, " + directories.size() + " directories; phase timings (ms): " + phase_timings);
+    }
+
+    /**
+     * Submits a task for every part of the split file, each decompresses its part straight into its position within the file
+     * @param targets the channels of the files being written, closed once every task is done
+     */
+    private void submitParts(Node<File> node, FileChannel channel, Workers pool, ThreadLocal<byte[]> buffers,
+                             List<Future<?>> tasks, List<FileChannel> targets){
+        FileChannel target;
+        Codec codec;
+        try {
+            codec = node.codec < 0 ? analyzer.codec : Codec.forId(node.codec);
+            target = FileChannel.open(new File(dir, node.path).toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            error("io_error " + node.path, e);
+            return;
+        }
+        targets.add(target);
+        long offset = node.offset, position = 0;
+        // The file is recorded in the metrics once its last part is written
+        AtomicInteger remaining = new AtomicInteger(Parts.count(node.parts));
+        for(int part = 0; part < Parts.count(node.parts); part++){
+            long part_offset = offset, part_length = node.parts[part * 2], part_position = position;
+            tasks.add(pool.submit(() -> {
+                if(cancelled.getAsBoolean()) {
+                    // The file is counted once, with its first part
+                    if(part_position == 0) skipped.incrementAndGet();
+                    return null;
+                }
+                long start = System.nanoTime();
+                try (InputStream inputStream = codec.decompressStream(openEntry(channel, part_offset, part_length))){
+                    long written = Streams.copy(inputStream, target, part_position, buffers.get());
+                    metrics.record(Metrics.Stage.EXTRACT, written, System.nanoTime() - start);
+                } catch (IOException e) {
+                    error("io_error " + node.path, e);
+                }
+                if(remaining.decrementAndGet() == 0) metrics.fileDone(node.path, node.raw_length, node.length);
+                return null;
+            }));
+            offset += part_length;
+            position += node.parts[part * 2 + 1];
+        }
+    }
+
+    private long timePhase(String phase, long start){
+        long now = System.nanoTime();
+        phase_timings.put(phase, (now - start) / 1000000);
+        return now;
+    }
+
+    /**
+     * Writes the contents of the node into the stream, decrypting and decompressing as needed.
+     * Entries stored as they are, neither compressed nor encrypted, are transferred from the archive into the file without copying them onto the heap.
+     * @param channel the channel of a streamed archive, null if the contents are held in the node itself
+     * @param cursor the solid block last read from, it is read on from if the node is a later part of the same block
+     */
+    private void writeEntry(Node<File> node, FileOutputStream fos, FileChannel channel, byte[] buffer, BlockCursor cursor) throws IOException {
+        if(channel != null) {
+            // Each entry is read from the archive, decrypted and decompressed straight into its file, one buffer at a time.
+            if(node.length <= 0) return;
+            if(isDirect(node)) {
+                // The parts of a split file, and the files of a solid block, lie one after another as they are
+                if(node.block_offset >= 0) Streams.transfer(channel, node.offset + node.block_offset, node.raw_length, fos.getChannel());
+                else Streams.transfer(channel, node.offset, node.length, fos.getChannel());
+                return;
+            }
+            if(node.block_offset >= 0) {
+                Streams.copy(cursor.seek(node), fos, node.raw_length, buffer);
+                cursor.position += node.raw_length;
+                return;
+            }
+            Codec codec = node.codec < 0 ? analyzer.codec : Codec.forId(node.codec);
+            InputStream stream = node.parts != null ? Parts.open(node.offset, node.parts, (offset, length) -> codec.decompressStream(openEntry(channel, offset, length)))
+                    : codec.decompressStream(openEntry(channel, node.offset, node.length));
+            try (InputStream entry = stream){
+                Streams.copy(entry, fos, buffer);
+            }
+        } else if(node.getData() != null){ // If for some reason the file contains no data
+            if (analyzer.COMPRESSED) {
+                Streams.copy(analyzer.codec.decompressStream(new ByteArrayInputStream(node.getData())), fos, buffer);
+            } else {
+                fos.write(node.data);
+            }
+        } else System.out.println(node.path);
+    }
+
+    /**
+     * Whether the entry of the node, in a streamed archive, is stored as it is; neither compressed nor encrypted
+     */
+    private boolean isDirect(Node<File> node){
+        return !analyzer.ENCRYPTED && (node.codec < 0 ? analyzer.codec.getId() : node.codec) == Codec.STORE.getId();
+    }
+
+    private InputStream openEntry(FileChannel channel, long offset, long length) throws IOException {
+        return entryStream(Streams.buffered(Streams.slice(channel, offset, length), buffer_size), analyzer.ENCRYPTED ? secretKey : null, header.cipher);
+    }
+
+    /**
+     * The solid block being read, while the files within it are written one after another.
+     * Files that come later in the same block are read on from the current position, else the block is decompressed from the start.
+     */
+    private class BlockCursor {
+        final FileChannel channel;
+        /** The offset of the entry of the block being read, -1 if none is */
+        long offset = -1;
+        /** The position within the decompressed block */
+        long position;
+        InputStream block;
+
+        BlockCursor(FileChannel channel){
+            this.channel = channel;
+        }
+
+        /**
+         * @return the stream of the block, positioned at the contents of the node
+         */
+        InputStream seek(Node<File> node) throws IOException {
+            if(block == null || offset != node.offset || position > node.block_offset) {
+                close();
+                block = analyzer.codec.decompressStream(openEntry(channel, node.offset, node.length));
+                offset = node.offset;
+                position = 0;
+            }
+            Streams.skipFully(block, node.block_offset - position);
+            position = node.block_offset;
+            return block;
+        }
+
+        void close() throws IOException {
+            if(block != null) block.close();
+            block = null;
+            offset = -1;
+        }
+    }
+
+    /**
+     * Set the number of threads the files are written on
+     * @param threads the number of threads, 1 writes the files on the calling thread
+     */
+    public void setThreads(int threads){
+        if(threads <= 0) throw new IllegalArgumentException("Thread count must be positive: " + threads);
+        this.threads = threads;
+    }
+
+    /**
+     * Set the executor the files are written on, at most {@link #setThreads(int)} files are written at once whatever its size
+     * @param executor the executor, null (the default) writes them on the pool shared by every operation
+     * @see Workers
+     */
+    public void setExecutor(Executor executor){
+        this.executor = executor;
+    }
+
+    /**
+     * Set the metrics the files extracted, and the time spent extracting them, are recorded in; a fresh instance is used by default.
+     * Their listeners are notified of every file as it is written, from the threads writing them.
+     * @param metrics the metrics, they may be shared with other jobs
+     */
+    public void setMetrics(Metrics metrics){
+        if(metrics == null) throw new NullPointerException("metrics");
+        this.metrics = metrics;
+    }
+
+    public Metrics getMetrics(){
+        return metrics;
+    }
+
+    /**
+     * Set what tells whether the extraction is to be left unfinished, it is checked before every file is written.
+     * Once it tells so, no more files are written; the files already written are left as they are.
+     * @param cancelled whether to stop, called from the threads writing the files
+     */
+    public void setCancelled(BooleanSupplier cancelled){
+        if(cancelled == null) throw new NullPointerException("cancelled");
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * @return the errors met while extracting the archive, in the order met; along with an {@link InterruptedIOException} if it was left unfinished once cancelled
+     */
+    public List<Exception> getErrors(){
+        synchronized (errors) {
+            return new ArrayList<>(errors);
+        }
+    }
+
+    /**
+     * Logs the error and records it, an extraction left unfinished once cancelled is only warned of
+     */
+    private void error(String message, Exception e){
+        if(e instanceof InterruptedIOException && cancelled.getAsBoolean()) Log.warn(TAG, message + ": " + e.getMessage());
+        else Log.error(TAG, message, e);
+        errors.add(e);
+    }
+
+    /**
+     * The time taken by each phase of the last parallel {@link #generate()}, in the order they ran.
+     * The phases are "list", "mkdir" and "write".
+     * @return the timings in milliseconds, keyed by phase
+     */
+    public Map<String, Long> getPhaseTimings(){
+        return phase_timings;
     }
 
     private void mkdir(String path){
@@ -108,7 +506,7 @@ public class Extractor {
             if(file.exists()) file.delete();
             file.createNewFile();
         } catch (IOException e) {
-            Log.error(TAG, "io_error", e);
+            error("io_error", e);
         }
         return file;
     }
@@ -0,0 +1,178 @@
+package io.minAR.core;
+
+import io.minAR.util.Codec;
+import io.minAR.util.Crypt;
+import io.minAR.util.Streams;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * The header at the start of every archive, describes how the archive was written so that it can be read without any flags.
+ * <table border="1">
+ * <tr><td>Bytes</td><td>Field</td></tr>
+ * <tr><td>4</td><td>{@link #MAGIC}</td></tr>
+ * <tr><td>2</td><td>version of the layout</td></tr>
+ * <tr><td>2</td><td>feature bits, {@link #STREAMED}, {@link #INDEXED}, {@link #DEDUPLICATED}, {@link #SOLID}, {@link #ADAPTIVE}, {@link #SPLIT} and {@link #CHECKED}</td></tr>
+ * <tr><td>1</td><td>id of the {@link Codec} of the entries</td></tr>
+ * <tr><td>1</td><td>cipher, {@link #CIPHER_NONE}, {@link #CIPHER_DES} or {@link #CIPHER_AES_GCM}</td></tr>
+ * <tr><td>2</td><td>reserved</td></tr>
+ * <tr><td>4</td><td>size of the encrypted chunks</td></tr>
+ * <tr><td>8</td><td>offset of the trailer, i.e, the serialized file tree</td></tr>
+ * <tr><td>8</td><td>offset of the {@link ArchiveIndex}, -1 if there is none</td></tr>
+ * </table>
+ * The trailer of a streamed archive is laid out compactly, see {@link NodeSerializer}.
+ * Archives written before the header was introduced hold the file tree alone, they are described from the flags they were read with.
+ * @author nikhil
+ * @since 0.0.2
+ */
+class Header {
+
+    /** Marks the start of an archive with a header, "MNAR" */
+    static final int MAGIC = 0x4D4E4152;
+    /** The size of the header */
+    static final int SIZE = 32;
+    /** The version of the layout written */
+    static final int VERSION = 8;
+
+    /** The entries are streamed, with a trailer; else the file tree, along with the data, follows the header */
+    static final int STREAMED = 1;
+    /** The archive has an {@link ArchiveIndex} */
+    static final int INDEXED = 1 << 1;
+    /** Files with identical contents refer to a single entry */
+    static final int DEDUPLICATED = 1 << 2;
+    /** Small files are compressed together in solid blocks, the index records their offsets within the blocks */
+    static final int SOLID = 1 << 3;
+    /** The codec of every entry is picked on its own, the index records those that differ from the codec of the archive */
+    static final int ADAPTIVE = 1 << 4;
+    /** Large files are split into {@link Parts}, the index records their lengths */
+    static final int SPLIT = 1 << 5;
+    /** The index records the checksum of every entry as it is stored, such that the archive can be verified without decompressing it */
+    static final int CHECKED = 1 << 6;
+
+    /** The codec of archives written before the header was introduced, while compressed */
+    static final int CODEC_XZ = 1;
+
+    static final int CIPHER_NONE = 0;
+    /** DES/ECB, over the whole file tree of archives written before the header; only read, see {@link Crypt#decryptLegacy(java.io.InputStream, javax.crypto.SecretKey)} */
+    static final int CIPHER_DES = 1;
+    /** AES/GCM in authenticated chunks, see {@link Crypt#encryptChunked(java.io.OutputStream, javax.crypto.SecretKey)}; every archive is encrypted so */
+    static final int CIPHER_AES_GCM = 2;
+
+    int version = VERSION;
+    int features;
+    int codec;
+    int cipher;
+    int chunk_size;
+    /** The offset of the trailer, or of the file tree if not streamed */
+    long trailer = -1;
+    long index = -1;
+    /** Where the region of the archive described by the header ends */
+    long end;
+
+    boolean isStreamed(){
+        return (features & STREAMED) != 0;
+    }
+
+    boolean isSolid(){
+        return (features & SOLID) != 0;
+    }
+
+    boolean isCompressed(){
+        return codec != Codec.STORE.getId();
+    }
+
+    boolean isEncrypted(){
+        return cipher != CIPHER_NONE;
+    }
+
+    boolean isChunkEncrypted(){
+        return cipher == CIPHER_AES_GCM;
+    }
+
+    /**
+     * @return the number of bytes the trailer spans
+     */
+    long trailerLength(){
+        return (index >= 0 ? index : end) - trailer;
+    }
+
+    /**
+     * @return the number of bytes the index spans
+     */
+    long indexLength(){
+        return end - index;
+    }
+
+    /**
+     * Creates the header of an archive about to be written
+     */
+    static Header of(int codec, boolean encrypted, boolean streamed){
+        Header ret = new Header();
+        ret.features = streamed ? STREAMED | INDEXED : 0;
+        ret.codec = codec;
+        ret.cipher = encrypted ? CIPHER_AES_GCM : CIPHER_NONE;
+        ret.chunk_size = ret.isChunkEncrypted() ? Crypt.CHUNK_SIZE : 0;
+        if(!streamed) ret.trailer = SIZE;
+        return ret;
+    }
+
+    /**
+     * @return the header as it is written at the start of the archive
+     */
+    ByteBuffer toBuffer(){
+        ByteBuffer ret = ByteBuffer.allocate(SIZE);
+        ret.putInt(MAGIC).putShort((short) version).putShort((short) features);
+        ret.put((byte) codec).put((byte) cipher).putShort((short) 0);
+        ret.putInt(chunk_size).putLong(trailer).putLong(index);
+        ret.flip();
+        return ret;
+    }
+
+    /**
+     * Reads the header of the archive.
+     * If the archive has none, i.e, it was written before the header was introduced, it is described from the given flags instead;
+     * such archives hold the file tree alone, along with the data, and are never streamed.
+     * @param channel the channel of the archive
+     * @param ar_file the path to the archive, for error messages
+     * @param compressed whether a headerless archive was compressed or not
+     * @param encrypted whether a headerless archive was encrypted or not
+     * @return the header
+     * @throws IOException if the header is invalid or of another version, or the archive is incomplete
+     */
+    static Header read(FileChannel channel, Path ar_file, boolean compressed, boolean encrypted) throws IOException {
+        long size = channel.size();
+        if(size >= SIZE) {
+            ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+            Streams.readFully(channel, buffer, 0);
+            buffer.flip();
+            if(buffer.getInt() == MAGIC) {
+                Header ret = new Header();
+                ret.version = buffer.getShort() & 0xffff;
+                if(ret.version > VERSION) throw new IOException(ar_file + " has a newer layout, version " + ret.version);
+                if(ret.version < VERSION) throw new IOException(ar_file + " has an unsupported layout, version " + ret.version);
+                ret.features = buffer.getShort() & 0xffff;
+                ret.codec = buffer.get() & 0xff;
+                ret.cipher = buffer.get() & 0xff;
+                if(ret.cipher > CIPHER_AES_GCM) throw new IOException(ar_file + " is encrypted with an unknown cipher, " + ret.cipher);
+                buffer.getShort();
+                ret.chunk_size = buffer.getInt();
+                ret.trailer = buffer.getLong();
+                ret.index = buffer.getLong();
+                ret.end = size;
+                if(ret.trailer < 0) throw new IOException(ar_file + " is incomplete, it was not finished being written");
+                return ret;
+            }
+        }
+        // Written before the header
+        Header ret = of(compressed ? CODEC_XZ : Codec.STORE.getId(), false, false);
+        ret.cipher = encrypted ? CIPHER_DES : CIPHER_NONE;
+        ret.version = 0;
+        ret.trailer = 0;
+        ret.end = size;
+        return ret;
+    }
+
+}
@@ -19,6 +19,27 @@ public class Node<T> {
 
     public String path;
 
+    /** The position of the contents of this node in a streamed archive */
+    protected long offset;
+    /** The number of bytes the contents of this node span in a streamed archive */
+    protected long length;
+    /** The size of the contents of this node once extracted, recorded in streamed archives */
+    protected long raw_length;
+    /** The CRC32 of the contents of this node once extracted, recorded in streamed archives */
+    protected long checksum;
+    /** The SHA-256 of the contents of this node, recorded only for files checked for duplicates */
+    protected byte[] hash;
+    /** The last modification time of the file of this node, recorded in streamed archives to find the files changed since */
+    protected long modified;
+    /** The position of the contents of this node within the solid block it was compressed in, -1 if it has an entry of its own */
+    protected long block_offset = -1;
+    /** The id of the {@link io.minAR.util.Codec} of the entry of this node, if it differs from that of the archive; -1 otherwise */
+    protected int codec = -1;
+    /** The lengths of the parts of the entry of a large file, see {@link Parts}; null if the entry is a single part */
+    protected long[] parts;
+    /** The CRC32 of the entry of this node as it is stored in a streamed archive, i.e, compressed and encrypted; -1 if not recorded */
+    protected long entry_checksum = -1;
+
     /**
      * Getter for the <code>data</code> field
      * @return bytes - data
@@ -27,6 +48,103 @@ public class Node<T> {
         return data;
     }
 
+    /**
+     * Getter for the <code>offset</code> field, only meaningful for streamed archives
+     * @return the position of the contents of this node in the archive
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Getter for the <code>length</code> field, only meaningful for streamed archives
+     * @return the number of bytes the contents of this node span in the archive
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Getter for the <code>raw_length</code> field, only meaningful for streamed archives
+     * @return the size of the contents of this node once extracted
+     */
+    public long getRaw_length() {
+        return raw_length;
+    }
+
+    /**
+     * Getter for the <code>checksum</code> field, only meaningful for streamed archives
+     * @return the CRC32 of the contents of this node once extracted
+     */
+    public long getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Getter for the <code>hash</code> field, only recorded in deduplicated streamed archives
+     * @return the SHA-256 of the contents of this node, null if not recorded
+     */
+    public byte[] getHash() {
+        return hash;
+    }
+
+    /**
+     * Getter for the <code>modified</code> field, only recorded in streamed archives
+     * @return the last modification time of the file, in milliseconds since the epoch, 0 if not recorded
+     */
+    public long getModified() {
+        return modified;
+    }
+
+    /**
+     * Getter for the <code>block_offset</code> field, only meaningful for streamed archives
+     * @return the position of the contents of this node within its solid block, -1 if it is not part of one
+     */
+    public long getBlock_offset() {
+        return block_offset;
+    }
+
+    /**
+     * Getter for the <code>codec</code> field, only recorded in adaptive streamed archives
+     * @return the id of the codec of the entry, -1 if it is that of the archive
+     */
+    public int getCodec() {
+        return codec;
+    }
+
+    /**
+     * Getter for the <code>parts</code> field, only recorded in streamed archives
+     * @return the lengths of the independently compressed parts of the entry, in pairs of the length in the archive and once extracted;
+     * null if the entry is a single part
+     */
+    public long[] getParts() {
+        return parts;
+    }
+
+    /**
+     * Getter for the <code>entry_checksum</code> field, only recorded in streamed archives
+     * @return the CRC32 of the entry of this node as it is stored in the archive, -1 if not recorded
+     */
+    public long getEntry_checksum() {
+        return entry_checksum;
+    }
+
+    /**
+     * Makes this node refer to the entry of another node with identical contents, in a streamed archive
+     * @param original the node whose entry is referred to
+     */
+    void referTo(Node<T> original){
+        offset = original.offset;
+        length = original.length;
+        raw_length = original.raw_length;
+        checksum = original.checksum;
+        block_offset = original.block_offset;
+        codec = original.codec;
+        parts = original.parts;
+        entry_checksum = original.entry_checksum;
+        if(hash == null) hash = original.hash;
+    }
+
     public T getUser_data(){
         return user_data;
     }
@@ -49,9 +167,13 @@ public class Node<T> {
         sub_nodes.addAll(Arrays.asList(nodes));
     }
 
+    /**
+     * Describes the node without its data, only the size of it; hence it is cheap even for large files
+     */
     @Override
     public String toString() {
-        return "[u_data:" + GET_UDATA() + " path:" + path + "] \n" + "(data; " + Arrays.toString(data) + ")";
+        return "[u_data:" + GET_UDATA() + " path:" + path + " data:" + (data != null ? data.length + " bytes" : "N/A")
+                + " offset:" + offset + " length:" + length + "]";
     }
 
     private String GET_UDATA(){
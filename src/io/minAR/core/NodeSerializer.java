@@ -0,0 +1,236 @@
+package io.minAR.core;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Serializes a {@link Node} along with every node beneath it, in the compact layout of the trailers of streamed archives from version 8.
+ * <p>
+ * The nodes are written one after another, every node before its sub nodes, walking the tree with a stack of its own.
+ * A node begins with bits telling which of its fields are written; fields at their defaults, such as the sub nodes of files or the hash of
+ * files not checked for duplicates, are left out. Its path is written as the length of the prefix it shares with the path of the node
+ * written before it, which is its parent or a node beneath its parent, followed by the rest of it, a character at a time.
+ * Numbers and characters are written as variable length integers, checksums as 4 bytes.
+ * @author nikhil
+ * @see io.minAR.util.Serializer
+ * @since 0.0.2
+ */
+@SuppressWarnings({"rawtypes", "unchecked"})
+public final class NodeSerializer extends Serializer<Node> {
+
+    private static final int SUB_NODES = 1;
+    private static final int DATA = 1 << 1;
+    private static final int CHECKSUM = 1 << 2;
+    private static final int HASH = 1 << 3;
+    private static final int BLOCK_OFFSET = 1 << 4;
+    private static final int CODEC = 1 << 5;
+    private static final int PARTS = 1 << 6;
+    private static final int ENTRY_CHECKSUM = 1 << 7;
+
+    @Override
+    public void write(Kryo kryo, Output output, Node node) {
+        String previous = writeNode(output, node, "");
+        // The sub nodes of the nodes being written, at every depth
+        ArrayList<Iterator<Node>> levels = new ArrayList<>();
+        if(node.sub_nodes != null) levels.add(((ArrayList<Node>) node.sub_nodes).iterator());
+        while (!levels.isEmpty()) {
+            Iterator<Node> level = levels.get(levels.size() - 1);
+            if(!level.hasNext()) {
+                levels.remove(levels.size() - 1);
+                continue;
+            }
+            Node sub_node = level.next();
+            previous = writeNode(output, sub_node, previous);
+            if(sub_node.sub_nodes != null) levels.add(((ArrayList<Node>) sub_node.sub_nodes).iterator());
+        }
+    }
+
+    @Override
+    public Node read(Kryo kryo, Input input, Class<Node> type) {
+        Node ret = new Node();
+        StringBuilder path = new StringBuilder();
+        int count = readNode(input, ret, path);
+        // The nodes whose sub nodes are being read, and the number of sub nodes left to read for each
+        ArrayList<Node> parents = new ArrayList<>();
+        int[] left = new int[16];
+        if(count >= 0) {
+            parents.add(ret);
+            left[0] = count;
+        }
+        while (!parents.isEmpty()) {
+            int depth = parents.size() - 1;
+            if(left[depth] == 0) {
+                parents.remove(depth);
+                continue;
+            }
+            left[depth]--;
+            Node sub_node = new Node();
+            count = readNode(input, sub_node, path);
+            parents.get(depth).sub_nodes.add(sub_node);
+            if(count >= 0) {
+                if(parents.size() == left.length) left = Arrays.copyOf(left, left.length * 2);
+                left[parents.size()] = count;
+                parents.add(sub_node);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Writes the fields of the node, and the number of its sub nodes if it has a list of them
+     * @param previous the path of the node written before
+     * @return the path of the node
+     */
+    private static String writeNode(Output output, Node<?> node, String previous){
+        int fields = 0;
+        if(node.sub_nodes != null) fields |= SUB_NODES;
+        if(node.data != null) fields |= DATA;
+        if(node.checksum != 0) fields |= CHECKSUM;
+        if(node.hash != null) fields |= HASH;
+        if(node.block_offset != -1) fields |= BLOCK_OFFSET;
+        if(node.codec != -1) fields |= CODEC;
+        if(node.parts != null) fields |= PARTS;
+        if(node.entry_checksum != -1) fields |= ENTRY_CHECKSUM;
+        output.writeByte(fields);
+        String path = node.path != null ? node.path : "";
+        int shared = sharedPrefix(previous, path);
+        output.writeVarInt(shared, true);
+        output.writeVarInt(path.length() - shared, true);
+        for(int x = shared; x < path.length(); x++) output.writeVarInt(path.charAt(x), true);
+        output.writeVarLong(node.offset, true);
+        output.writeVarLong(node.length, true);
+        output.writeVarLong(node.raw_length, true);
+        output.writeVarLong(node.modified, true);
+        if((fields & CHECKSUM) != 0) output.writeInt((int) node.checksum);
+        if((fields & ENTRY_CHECKSUM) != 0) output.writeInt((int) node.entry_checksum);
+        if((fields & DATA) != 0) {
+            output.writeVarInt(node.data.length, true);
+            output.writeBytes(node.data);
+        }
+        if((fields & HASH) != 0) {
+            output.writeVarInt(node.hash.length, true);
+            output.writeBytes(node.hash);
+        }
+        if((fields & BLOCK_OFFSET) != 0) output.writeVarLong(node.block_offset, true);
+        if((fields & CODEC) != 0) output.writeVarInt(node.codec, true);
+        if((fields & PARTS) != 0) {
+            output.writeVarInt(node.parts.length, true);
+            for(long part : node.parts) output.writeVarLong(part, true);
+        }
+        if((fields & SUB_NODES) != 0) output.writeVarInt(node.sub_nodes.size(), true);
+        return path;
+    }
+
+    /**
+     * Reads the fields of the node written by {@link #writeNode(Output, Node, String)}, leaving its list of sub nodes, if it has one, empty
+     * @param path the path of the node read before, replaced by that of the node
+     * @return the number of sub nodes of the node, which follow it; -1 if it has no list of them
+     */
+    private static int readNode(Input input, Node<?> node, StringBuilder path){
+        int fields = input.readByte() & 0xff;
+        path.setLength(input.readVarInt(true));
+        for(int x = input.readVarInt(true); x > 0; x--) path.append((char) input.readVarInt(true));
+        node.path = path.toString();
+        node.offset = input.readVarLong(true);
+        node.length = input.readVarLong(true);
+        node.raw_length = input.readVarLong(true);
+        node.modified = input.readVarLong(true);
+        if((fields & CHECKSUM) != 0) node.checksum = input.readInt() & 0xffffffffL;
+        if((fields & ENTRY_CHECKSUM) != 0) node.entry_checksum = input.readInt() & 0xffffffffL;
+        if((fields & DATA) != 0) node.data = input.readBytes(input.readVarInt(true));
+        if((fields & HASH) != 0) node.hash = input.readBytes(input.readVarInt(true));
+        if((fields & BLOCK_OFFSET) != 0) node.block_offset = input.readVarLong(true);
+        if((fields & CODEC) != 0) node.codec = input.readVarInt(true);
+        if((fields & PARTS) != 0) {
+            long[] parts = new long[input.readVarInt(true)];
+            for(int x = 0; x < parts.length; x++) parts[x] = input.readVarLong(true);
+            node.parts = parts;
+        }
+        if((fields & SUB_NODES) == 0) return -1;
+        int ret = input.readVarInt(true);
+        node.sub_nodes = new ArrayList<>(ret);
+        return ret;
+    }
+
+    private static int sharedPrefix(String a, String b){
+        int max = Math.min(a.length(), b.length()), ret = 0;
+        while (ret < max && a.charAt(ret) == b.charAt(ret)) ret++;
+        return ret;
+    }
+
+    /**
+     * Serializes a {@link NodeTree} as its terminal node, through {@link NodeSerializer}
+     */
+    public static final class Tree extends Serializer<NodeTree> {
+        private final NodeSerializer nodes = new NodeSerializer();
+
+        @Override
+        public void write(Kryo kryo, Output output, NodeTree tree) {
+            nodes.write(kryo, output, tree.terminalNode);
+        }
+
+        @Override
+        public NodeTree read(Kryo kryo, Input input, Class<NodeTree> type) {
+            return new NodeTree(nodes.read(kryo, input, Node.class));
+        }
+    }
+
+    /**
+     * Reads the layout of {@link NodeSerializer} into a {@link CompactTree}, a node at a time; no {@link Node} is kept,
+     * hence the tree costs a few bytes per file however many there are. The children of a node are numbered as soon as it is read.
+     * A compact tree holds too little to be written back, the file tree it was read from is serialized instead
+     */
+    public static final class Compact extends Serializer<CompactTree> {
+
+        @Override
+        public void write(Kryo kryo, Output output, CompactTree tree) {
+            throw new UnsupportedOperationException("A compact tree cannot be serialized, its file tree can");
+        }
+
+        @Override
+        public CompactTree read(Kryo kryo, Input input, Class<CompactTree> type) {
+            CompactTree ret = new CompactTree(64);
+            StringBuilder path = new StringBuilder();
+            Node node = new Node();
+            int count = readNode(input, node, path);
+            ret.setRoot(node);
+            // The nodes whose children are being read, the number of the next of them, and the number left to read, at every depth
+            int[] parents = new int[16], next = new int[16], left = new int[16];
+            int depth = -1;
+            if(count >= 0) {
+                depth = 0;
+                next[0] = ret.reserve(0, count);
+                left[0] = count;
+            }
+            while (depth >= 0) {
+                if(left[depth] == 0) {
+                    depth--;
+                    continue;
+                }
+                left[depth]--;
+                int number = next[depth]++;
+                node = new Node();
+                count = readNode(input, node, path);
+                ret.set(number, parents[depth], node);
+                if(count >= 0) {
+                    if(++depth == parents.length) {
+                        parents = Arrays.copyOf(parents, depth * 2);
+                        next = Arrays.copyOf(next, depth * 2);
+                        left = Arrays.copyOf(left, depth * 2);
+                    }
+                    parents[depth] = number;
+                    next[depth] = ret.reserve(number, count);
+                    left[depth] = count;
+                }
+            }
+            ret.trim();
+            return ret;
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package io.minAR.core;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * A tree of {@link Node}
@@ -139,20 +142,61 @@ public class NodeTree<T> {
     }
 
     /**
-     * Recursively loop through - identify, and invoke methods from {@link NodeListener} onto nodes
+     * Loop through - identify, and invoke methods from {@link NodeListener} onto nodes, every node before its sub nodes.
+     * The tree is walked with a stack of its own, hence its depth is not bounded by that of the call stack.
      */
     public void traverse(){
         if(current_nodes == null) nextLevel(0);
-        traverse(current_nodes, listener);
+        walk(current_nodes, null, listener);
     }
 
-    private void traverse(ArrayList<Node<T>> nodes, NodeListener<T> nodeListener){
-        for(Node<T> node : nodes){
-            nodeListener.listen(node, nodes.size());
-            if(node.sub_nodes != null){
-                traverse(node.sub_nodes, nodeListener);
+    /**
+     * Walk the tree depth first from the terminal node, at depth 0, calling the visitor before and after the sub nodes of every node.
+     * The tree is walked with a stack of its own, hence its depth is not bounded by that of the call stack.
+     * @param visitor the visitor, which may skip the sub nodes of a node or end the walk
+     * @return false if the walk was ended by the visitor, true otherwise
+     */
+    public boolean walk(NodeVisitor<T> visitor){
+        return walk(Collections.singletonList(terminalNode), visitor, null);
+    }
+
+    /**
+     * Walks the nodes and their sub nodes, every node before its sub nodes, calling either the visitor or the listener on every node
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"}) // Arrays of a generic type cannot be created but raw
+    private static <T> boolean walk(List<Node<T>> nodes, NodeVisitor<T> visitor, NodeListener<T> nodeListener){
+        // The nodes being walked at every depth, and the position of the next one within them
+        List<Node<T>>[] levels = new List[16];
+        int[] positions = new int[16];
+        levels[0] = nodes;
+        int depth = 0;
+        while (depth >= 0) {
+            List<Node<T>> level = levels[depth];
+            if(positions[depth] == level.size()) {
+                levels[depth] = null;
+                positions[depth] = 0;
+                if(--depth < 0) break;
+                // The sub nodes of the node last visited at the depth above are done
+                if(visitor != null && visitor.postVisit(levels[depth].get(positions[depth] - 1), depth) == Walk.TERMINATE) return false;
+                continue;
+            }
+            Node<T> node = level.get(positions[depth]++);
+            Walk walk = Walk.CONTINUE;
+            if(visitor != null) walk = visitor.preVisit(node, depth);
+            else nodeListener.listen(node, level.size());
+            if(walk == Walk.TERMINATE) return false;
+            if(walk == Walk.SKIP_SUBTREE) continue;
+            if(node.sub_nodes != null && !node.sub_nodes.isEmpty()) {
+                if(++depth == levels.length) {
+                    levels = Arrays.copyOf(levels, depth * 2);
+                    positions = Arrays.copyOf(positions, depth * 2);
+                }
+                levels[depth] = node.sub_nodes;
+            } else if(visitor != null && visitor.postVisit(node, depth) == Walk.TERMINATE) {
+                return false;
             }
         }
+        return true;
     }
 
     /**
@@ -170,6 +214,41 @@ public class NodeTree<T> {
         }
     }
 
+    /**
+     * How a walk goes on after a node is visited
+     * @see #walk(NodeVisitor)
+     */
+    public enum Walk {
+        /** Go on, to the sub nodes of the node if any */
+        CONTINUE,
+        /** Go on, but not to the sub nodes of the node; its {@link NodeVisitor#postVisit(Node, int)} is not called */
+        SKIP_SUBTREE,
+        /** End the walk */
+        TERMINATE
+    }
+
+    /**
+     * Contains methods invoked upon every node while walking through the {@link NodeTree}, both default to {@link Walk#CONTINUE}
+     * @param <T>
+     * @see #walk(NodeVisitor)
+     */
+    public interface NodeVisitor<T> {
+        /**
+         * Invoked upon the node before its sub nodes
+         * @param depth the depth of the node, 0 for the terminal node
+         */
+        default Walk preVisit(Node<T> node, int depth) {
+            return Walk.CONTINUE;
+        }
+
+        /**
+         * Invoked upon the node after its sub nodes, unless they were skipped
+         * @param depth the depth of the node, 0 for the terminal node
+         */
+        default Walk postVisit(Node<T> node, int depth) {
+            return Walk.CONTINUE;
+        }
+    }
 
     /**
      * A simple interface, lambda compatible, contains methods invoked upon every node while traversing through the {@link NodeTree}
@@ -0,0 +1,82 @@
+package io.minAR.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The entry of a large file, split into parts that are compressed and encrypted independently, such that they are written and read in parallel.
+ * The parts follow each other in the archive, their lengths are recorded in pairs, the length in the archive and the length once extracted.
+ * @author nikhil
+ * @since 0.0.2
+ */
+final class Parts {
+
+    /**
+     * Opens a single part, decrypting and decompressing it as it is read
+     */
+    interface Opener {
+        InputStream open(long offset, long length) throws IOException;
+    }
+
+    private Parts(){}
+
+    /**
+     * @return the number of parts
+     */
+    static int count(long[] parts){
+        return parts.length / 2;
+    }
+
+    /**
+     * Opens all of the parts, one after another, as a single stream
+     * @param offset the position of the entry in the archive
+     * @param parts the lengths of the parts
+     * @param opener opens each part
+     * @return the contents of the file
+     */
+    static InputStream open(long offset, long[] parts, Opener opener){
+        return new InputStream() {
+            int part = 0;
+            long position = offset;
+            InputStream current;
+
+            /**
+             * @return the part being read, the next one if the current is exhausted; null once all are read
+             */
+            private InputStream current() throws IOException {
+                while (current == null && part < count(parts)) {
+                    long length = parts[part * 2];
+                    current = opener.open(position, length);
+                    position += length;
+                    part++;
+                }
+                return current;
+            }
+
+            @Override
+            public int read() throws IOException {
+                byte[] single = new byte[1];
+                return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                for(InputStream in = current(); in != null; in = current()){
+                    int ret = in.read(b, off, len);
+                    if(ret != -1) return ret;
+                    in.close();
+                    current = null;
+                }
+                return -1;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if(current != null) current.close();
+                current = null;
+                part = count(parts);
+            }
+        };
+    }
+
+}
@@ -0,0 +1,364 @@
+package io.minAR.core;
+
+import com.esotericsoftware.minlog.Log;
+import io.minAR.util.Buffers;
+import io.minAR.util.Codec;
+import io.minAR.util.Metrics;
+import io.minAR.util.Streams;
+import io.minAR.util.Workers;
+
+import javax.crypto.SecretKey;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Streams the entries of an archive through five stages, each on threads of its own taken from an executor, so that planning, reading, compressing, encrypting and writing overlap.
+ * <table border="1">
+ * <tr><td>Stage</td><td>Work</td></tr>
+ * <tr><td>planner</td><td>takes the entries as the analyzer plans them, in order, along with their share of the budget; on a single thread</td></tr>
+ * <tr><td>reader</td><td>reads the files of an entry into memory, recording their sizes and checksums</td></tr>
+ * <tr><td>compressor</td><td>compresses the entry with the codec of its nodes</td></tr>
+ * <tr><td>cipher</td><td>encrypts the compressed entry, if the archive is encrypted</td></tr>
+ * <tr><td>writer</td><td>writes the entries in order, on the calling thread</td></tr>
+ * </table>
+ * The stages are connected by queues of twice the threads taking from them, and the bytes of files held across all stages are bounded by a budget.
+ * The planner takes the shares of the budget in order, hence the entry the writer waits for always holds its share; the stages never deadlock.
+ * Planning an entry may wait for the scanner or read whole files to compare them, the readers go on meanwhile with the entries already planned.
+ * Entries that are not read into memory, such as those larger than the budget, or copied and transferred ones, are written by the writer itself.
+ * The busy time of every stage is logged, the slowest stage bounds the whole; it is recorded in the {@link Metrics} of the analyzer too,
+ * which watch the depths of the queues while the pipeline runs.
+ * @author nikhil
+ * @since 0.0.2
+ */
+final class Pipeline {
+
+    private static final String TAG = "pipeline_minAR";
+
+    /**
+     * Writes the entries that are not read into memory, on the writer thread
+     */
+    interface InlineWriter {
+        void write(List<Node<File>> entry) throws IOException;
+    }
+
+    /**
+     * An entry passing through the stages
+     */
+    private static final class Item {
+        final int sequence;
+        final List<Node<File>> nodes;
+        final boolean inline;
+        final int cost;
+        /** The contents of the entry, read, then compressed, then encrypted */
+        ByteArrayOutputStream data;
+
+        Item(int sequence, List<Node<File>> nodes, boolean inline, int cost){
+            this.sequence = sequence;
+            this.nodes = nodes;
+            this.inline = inline;
+            this.cost = cost;
+        }
+    }
+
+    /** Marks the end of the entries, passed on by every stage */
+    private static final Item END = new Item(-1, null, true, 0);
+
+    private final Analyzer analyzer;
+    private final Metrics metrics;
+    private final int readers, compressors, ciphers;
+    private final SecretKey secretKey;
+    private final int budget;
+    /** The executor the stages run on, null runs them on the pool shared by every operation */
+    private final Executor executor;
+    private final Semaphore in_flight;
+    private final BlockingQueue<Item> to_read, to_compress, to_encrypt;
+    /** The entries done, waiting to be written in order, keyed by sequence */
+    private final HashMap<Integer, Item> done = new HashMap<>();
+    private final ArrayBlockingQueue<ByteArrayOutputStream> spare_sinks;
+    private final AtomicLong read_nanos = new AtomicLong(), compress_nanos = new AtomicLong(), encrypt_nanos = new AtomicLong();
+    private long write_nanos, wait_nanos;
+    private int readers_done, compressors_done;
+    private volatile Throwable failure;
+    /** The threads of the stages, while the pipeline runs */
+    private Workers stages;
+
+    /**
+     * @param analyzer the analyzer whose archive is being streamed, it picks the codecs and records the time spent compressing
+     * @param readers the number of reader threads
+     * @param compressors the number of compressor threads
+     * @param ciphers the number of cipher threads, unused if the archive is not encrypted
+     * @param secretKey the key to encrypt the entries with, null if not encrypted
+     * @param budget the most bytes of files held in memory across all stages
+     * @param executor the executor the stages run on, those it does not start in time run on the pool shared by every operation; null runs them all there
+     */
+    Pipeline(Analyzer analyzer, int readers, int compressors, int ciphers, SecretKey secretKey, long budget, Executor executor){
+        this.analyzer = analyzer;
+        this.metrics = analyzer.metrics;
+        this.readers = readers;
+        this.compressors = compressors;
+        this.ciphers = secretKey != null ? ciphers : 0;
+        this.secretKey = secretKey;
+        this.budget = (int) Math.min(Integer.MAX_VALUE, budget);
+        this.executor = executor;
+        this.in_flight = new Semaphore(this.budget);
+        this.to_read = new ArrayBlockingQueue<>(readers * 2);
+        this.to_compress = new ArrayBlockingQueue<>(compressors * 2);
+        this.to_encrypt = new ArrayBlockingQueue<>(Math.max(1, this.ciphers * 2));
+        this.spare_sinks = new ArrayBlockingQueue<>((readers + compressors + this.ciphers) * 4);
+    }
+
+    /**
+     * @return the bytes of the files of the entry
+     */
+    static long cost(List<Node<File>> entry){
+        long ret = 0;
+        for(Node<File> node : entry){
+            if(!node.getUser_data().isDirectory()) ret += node.getUser_data().length();
+        }
+        return ret;
+    }
+
+    /**
+     * Whether the entry is read into memory, at most the budget
+     */
+    boolean fits(List<Node<File>> entry){
+        return cost(entry) <= budget;
+    }
+
+    /**
+     * Streams the entries into the archive, in order
+     * @param entries the entries, as planned by the analyzer; taken by the planner in turn, hence they may be planned as they are taken
+     * @param inline whether an entry is written by the writer itself, rather than read into memory
+     * @param writer writes such entries
+     * @param out the archive
+     */
+    void run(Iterator<List<Node<File>>> entries, Predicate<List<Node<File>>> inline, InlineWriter writer, Streams.CountingOutputStream out) throws IOException {
+        LinkedHashMap<String, IntSupplier> queues = new LinkedHashMap<>();
+        queues.put("read", to_read::size);
+        queues.put("compress", to_compress::size);
+        queues.put("encrypt", to_encrypt::size);
+        queues.put("write", () -> {
+            synchronized (done) {
+                return done.size();
+            }
+        });
+        metrics.watchQueues(queues);
+        stages = new Workers(executor, 1);
+        try {
+            start("planner", () -> plan(entries, inline));
+            for(int x = 0; x < readers; x++) start("reader-" + x, this::read);
+            for(int x = 0; x < compressors; x++) start("compressor-" + x, this::compress);
+            for(int x = 0; x < ciphers; x++) start("cipher-" + x, this::encrypt);
+            for(int sequence = 0; ; sequence++){
+                Item item = await(sequence);
+                if(item.nodes == null) break;
+                long start = System.nanoTime();
+                long offset = out.getCount();
+                if(item.inline) {
+                    writer.write(item.nodes);
+                } else {
+                    item.data.writeTo(out);
+                    releaseSink(item.data);
+                    in_flight.release(item.cost);
+                    metrics.record(Metrics.Stage.WRITE, out.getCount() - offset, System.nanoTime() - start);
+                }
+                analyzer.setExtent(item.nodes, offset, out);
+                write_nanos += System.nanoTime() - start;
+            }
+        } finally {
+            // Interrupts the stages still running
+            stages.close();
+            metrics.unwatchQueues();
+        }
+        Log.info(TAG, "Busy time (ms): read " + read_nanos.get() / 1000000 + " on " + readers + " threads, compress " + compress_nanos.get() / 1000000
+                + " on " + compressors + ", encrypt " + encrypt_nanos.get() / 1000000 + " on " + ciphers + ", write " + write_nanos / 1000000
+                + "; the writer waited " + wait_nanos / 1000000);
+    }
+
+    private void start(String name, Stage stage){
+        stages.start(TAG + "-" + name, () -> {
+            try {
+                stage.run();
+            } catch (InterruptedException | InterruptedIOException e) {
+                // Stopped, the archive is done or failed
+            } catch (Throwable e) {
+                fail(e);
+            }
+        });
+    }
+
+    private interface Stage {
+        void run() throws Exception;
+    }
+
+    /**
+     * The planner stage, takes the entries in order along with their share of the budget; entries written by the writer itself are passed straight to it
+     */
+    private void plan(Iterator<List<Node<File>>> entries, Predicate<List<Node<File>>> inline) throws Exception {
+        int sequence = 0;
+        while (entries.hasNext()) {
+            List<Node<File>> nodes = entries.next();
+            boolean is_inline = inline.test(nodes);
+            int cost = is_inline ? 0 : (int) cost(nodes);
+            Item item = new Item(sequence++, nodes, is_inline, cost);
+            if(item.inline) {
+                finish(item);
+                continue;
+            }
+            in_flight.acquire(cost);
+            to_read.put(item);
+        }
+        // The writer stops at the entry past the last
+        finish(new Item(sequence, null, true, 0));
+        for(int x = 0; x < readers; x++) to_read.put(END);
+    }
+
+    /**
+     * The reader stage, reads the files of the entries planned
+     */
+    private void read() throws Exception {
+        byte[] buffer = Buffers.take(analyzer.buffer_size);
+        try {
+            for(Item item = to_read.take(); item != END; item = to_read.take()){
+                long start = System.nanoTime();
+                item.data = takeSink();
+                long position = 0;
+                for(Node<File> node : item.nodes){
+                    try (CheckedInputStream inputStream = new CheckedInputStream(new FileInputStream(node.getUser_data()), new CRC32())){
+                        if(item.nodes.size() > 1) node.block_offset = position;
+                        node.raw_length = Streams.copy(inputStream, item.data, buffer);
+                        node.checksum = inputStream.getChecksum().getValue();
+                    }
+                    position += node.raw_length;
+                }
+                long nanos = System.nanoTime() - start;
+                read_nanos.addAndGet(nanos);
+                metrics.record(Metrics.Stage.READ, item.data.size(), nanos);
+                to_compress.put(item);
+            }
+        } finally {
+            Buffers.release(buffer);
+        }
+        // The last reader to finish ends the compressors
+        synchronized (this) {
+            if(++readers_done == readers) for(int x = 0; x < compressors; x++) to_compress.put(END);
+        }
+    }
+
+    /**
+     * The compressor stage, compresses the entries with the codec of their nodes
+     */
+    private void compress() throws Exception {
+        for(Item item = to_compress.take(); item != END; item = to_compress.take()){
+            long start = System.nanoTime();
+            long cpu = AdaptivePolicy.cpuTime();
+            Node<File> first = item.nodes.get(0);
+            Codec codec = first.codec < 0 ? analyzer.codec : Codec.forId(first.codec);
+            ByteArrayOutputStream compressed = takeSink();
+            try (OutputStream outputStream = codec.compressStream(compressed)){
+                item.data.writeTo(outputStream);
+            }
+            // Solid blocks are compressed with the codec of the archive, never picked per file
+            if(item.nodes.size() == 1) analyzer.recordCompression(codec, item.data.size(), AdaptivePolicy.cpuTime() - cpu);
+            int raw_length = item.data.size();
+            releaseSink(item.data);
+            item.data = compressed;
+            long nanos = System.nanoTime() - start;
+            compress_nanos.addAndGet(nanos);
+            metrics.record(Metrics.Stage.COMPRESS, raw_length, nanos);
+            if(ciphers > 0) to_encrypt.put(item);
+            else finish(item);
+        }
+        synchronized (this) {
+            if(++compressors_done == compressors) for(int x = 0; x < ciphers; x++) to_encrypt.put(END);
+        }
+    }
+
+    /**
+     * The cipher stage, encrypts the compressed entries
+     */
+    private void encrypt() throws Exception {
+        for(Item item = to_encrypt.take(); item != END; item = to_encrypt.take()){
+            long start = System.nanoTime();
+            ByteArrayOutputStream sealed = takeSink();
+            try (OutputStream outputStream = Analyzer.entryStream(sealed, secretKey)){
+                item.data.writeTo(outputStream);
+            }
+            long nanos = System.nanoTime() - start;
+            metrics.record(Metrics.Stage.ENCRYPT, item.data.size(), nanos);
+            releaseSink(item.data);
+            item.data = sealed;
+            encrypt_nanos.addAndGet(nanos);
+            finish(item);
+        }
+    }
+
+    private void finish(Item item){
+        synchronized (done) {
+            done.put(item.sequence, item);
+            done.notifyAll();
+        }
+    }
+
+    private void fail(Throwable e){
+        failure = e;
+        synchronized (done) {
+            done.notifyAll();
+        }
+    }
+
+    /**
+     * Waits for the entry to pass through every stage
+     */
+    private Item await(int sequence) throws IOException {
+        long start = System.nanoTime();
+        synchronized (done) {
+            try {
+                while (!done.containsKey(sequence) && failure == null) {
+                    done.wait(Workers.START_MILLIS);
+                    stages.startLate();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(e.getMessage());
+            }
+            wait_nanos += System.nanoTime() - start;
+            if(failure != null) {
+                if(failure instanceof IOException) throw (IOException) failure;
+                if(failure instanceof UncheckedIOException) throw ((UncheckedIOException) failure).getCause();
+                throw new IOException(failure);
+            }
+            return done.remove(sequence);
+        }
+    }
+
+    private ByteArrayOutputStream takeSink(){
+        ByteArrayOutputStream ret = spare_sinks.poll();
+        return ret != null ? ret : new ByteArrayOutputStream(analyzer.buffer_size);
+    }
+
+    private void releaseSink(ByteArrayOutputStream sink){
+        if(sink.size() > Buffers.MAX_RETAINED_SIZE * 4) return;
+        sink.reset();
+        spare_sinks.offer(sink);
+    }
+
+}
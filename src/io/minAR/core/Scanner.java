@@ -0,0 +1,393 @@
+package io.minAR.core;
+
+import com.esotericsoftware.minlog.Log;
+import io.minAR.util.Workers;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Scans a directory into a file tree, reading the attributes of every file once, along with the listing of its directory.
+ * The files of the tree are {@link File}s that hold the attributes read, hence asking for their size, modification time
+ * or whether they are directories does not reach the file system again.
+ * <p>
+ * Files and directories can be left out of the tree by glob, see {@link #setInclude(String...)} and {@link #setExclude(String...)}.
+ * The directories can be listed on several threads at once, see {@link #setThreads(int)}.
+ * Symbolic links are followed, as {@link File#listFiles()} does; a link to a directory above it is left out.
+ * @author nikhil
+ * @since 0.0.2
+ */
+public final class Scanner {
+
+    private static final String TAG = "scanner_minAR";
+
+    private final Path top;
+    private final List<PathMatcher> include = new ArrayList<>(), exclude = new ArrayList<>();
+    /** Whether every glob matches names only, rather than paths */
+    private boolean[] names_only_include = new boolean[0], names_only_exclude = new boolean[0];
+    private int threads = 1;
+    /** The executor the directories are listed on, null lists them on the pool shared by every operation */
+    private Executor executor;
+    private BooleanSupplier stopped = () -> false;
+
+    /**
+     * @param top the directory to be scanned
+     */
+    public Scanner(File top){
+        this.top = top.toPath();
+    }
+
+    /**
+     * @return the directory to be scanned
+     */
+    public File getDirectory(){
+        return top.toFile();
+    }
+
+    /**
+     * Set the globs of the files to be scanned, every other file is left out; directories are always scanned.
+     * A glob with no '/' matches the names of the files, any other matches their paths relative to the directory scanned.
+     * @param globs the globs, none scans every file
+     */
+    public void setInclude(String... globs){
+        include.clear();
+        for(String glob : globs) include.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+        names_only_include = namesOnly(globs);
+    }
+
+    /**
+     * Set the globs of the files and directories to be left out, everything beneath an excluded directory is left out too.
+     * A glob with no '/' matches the names, any other matches the paths relative to the directory scanned.
+     * @param globs the globs, none leaves nothing out
+     */
+    public void setExclude(String... globs){
+        exclude.clear();
+        for(String glob : globs) exclude.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+        names_only_exclude = namesOnly(globs);
+    }
+
+    private static boolean[] namesOnly(String[] globs){
+        boolean[] ret = new boolean[globs.length];
+        for(int x = 0; x < globs.length; x++) ret[x] = globs[x].indexOf('/') < 0;
+        return ret;
+    }
+
+    /**
+     * Set the number of threads the directory is scanned on; every directory is then listed by a task of its own
+     * @param threads the number of threads, 1 (the default) walks the directory on the calling thread
+     */
+    public void setThreads(int threads){
+        if(threads <= 0) throw new IllegalArgumentException("Thread count must be positive: " + threads);
+        this.threads = threads;
+    }
+
+    /**
+     * Set the executor the directories are listed on, if scanned on several threads
+     * @param executor the executor, null (the default) lists them on the pool shared by every operation
+     * @see Workers
+     */
+    public void setExecutor(Executor executor){
+        this.executor = executor;
+    }
+
+    /**
+     * Set whether {@link #scan()} is to stop, such as once the operation scanning the directory is cancelled
+     * @param stopped whether to stop scanning, checked before every node is found
+     */
+    public void setStopped(BooleanSupplier stopped){
+        if(stopped == null) throw new NullPointerException("stopped");
+        this.stopped = stopped;
+    }
+
+    /**
+     * Scans the directory
+     * @return the file tree, its terminal node is the directory itself
+     * @throws IOException if the directory cannot be read
+     * @throws InterruptedIOException if the scan was stopped, see {@link #setStopped(BooleanSupplier)}
+     */
+    public NodeTree<File> scan() throws IOException {
+        return scan(node -> {}, stopped);
+    }
+
+    /**
+     * Scans the directory, handing every node over as soon as it is found; every directory before its contents, in the order of the tree.
+     * If the directory is scanned on several threads, the nodes of a directory are handed over once it is listed.
+     * The sub nodes of a directory are set once it is scanned, the tree is complete only once this returns.
+     * @param found called on the calling thread with every node but the terminal node
+     * @param stopped whether to stop scanning, checked before every node is found
+     * @return the file tree, its terminal node is the directory itself
+     * @throws IOException if the directory cannot be read
+     * @throws InterruptedIOException if the scan was stopped
+     */
+    public NodeTree<File> scan(Consumer<Node<File>> found, BooleanSupplier stopped) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(top, BasicFileAttributes.class);
+        if(!attributes.isDirectory()) throw new IOException(top + " is not a directory");
+        Node<File> root = Node.newNode(null, new ScannedFile(top, attributes), "/", (Node<File>[]) null);
+        if(threads > 1) scanParallel(root, found, stopped);
+        else walk(root, found, stopped);
+        if(stopped.getAsBoolean()) throw new InterruptedIOException("Stopped scanning " + top);
+        return new NodeTree<>(root);
+    }
+
+    /**
+     * Walks the directory on the calling thread, through {@link Files#walkFileTree}
+     */
+    private void walk(Node<File> root, Consumer<Node<File>> found, BooleanSupplier stopped) throws IOException {
+        // The directories being walked, and the sub nodes found so far in each
+        ArrayDeque<Node<File>> directories = new ArrayDeque<>();
+        ArrayDeque<ArrayList<Node<File>>> sub_nodes = new ArrayDeque<>();
+        Files.walkFileTree(top, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if(stopped.getAsBoolean()) return FileVisitResult.TERMINATE;
+                Node<File> node = root;
+                if(!directories.isEmpty()) {
+                    if(excluded(dir)) return FileVisitResult.SKIP_SUBTREE;
+                    node = newNode(directories.peek(), dir, attrs);
+                    sub_nodes.peek().add(node);
+                    found.accept(node);
+                }
+                directories.push(node);
+                sub_nodes.push(new ArrayList<>());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if(stopped.getAsBoolean()) return FileVisitResult.TERMINATE;
+                if(excluded(file) || !included(file)) return FileVisitResult.CONTINUE;
+                Node<File> node = newNode(directories.peek(), file, attrs);
+                sub_nodes.peek().add(node);
+                found.accept(node);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                Log.warn(TAG, "Left out " + file + ": " + e);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+                if(e != null) Log.warn(TAG, "Could not list all of " + dir + ": " + e);
+                setSubNodes(directories.pop(), sub_nodes.pop());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Lists every directory by a task of its own on the {@link #executor}, at most {@link #threads} at once; each submits a task for every subdirectory it finds,
+     * hence the whole tree is listed at once, however it is shaped. The nodes are handed over on the calling thread in the order of the tree,
+     * those of every directory as soon as it is listed; a directory no thread has started listing yet is listed by the calling thread itself.
+     */
+    private void scanParallel(Node<File> root, Consumer<Node<File>> found, BooleanSupplier stopped) throws IOException {
+        try (Workers workers = new Workers(executor, threads)){
+            Object key = root.getUser_data() instanceof ScannedFile ? ((ScannedFile) root.getUser_data()).key : null;
+            // The directories being handed over, and the position of the next node within each
+            ArrayDeque<ListTask> directories = new ArrayDeque<>();
+            ArrayDeque<Integer> positions = new ArrayDeque<>();
+            ListTask top_task = new ListTask(root, Collections.singletonList(key), stopped, workers).call();
+            directories.push(top_task);
+            positions.push(0);
+            while (!directories.isEmpty()) {
+                ListTask directory = directories.peek();
+                int position = positions.pop();
+                if(position == directory.sub_nodes.size() || stopped.getAsBoolean()) {
+                    directories.pop();
+                    continue;
+                }
+                positions.push(position + 1);
+                found.accept(directory.sub_nodes.get(position));
+                Future<ListTask> sub_directory = directory.tasks.get(position);
+                if(sub_directory != null) {
+                    directories.push(sub_directory.get());
+                    positions.push(0);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Stopped scanning " + top);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Lists a directory, submitting a task for every subdirectory; the task itself is its result
+     */
+    private class ListTask implements Callable<ListTask> {
+        private final Node<File> directory;
+        private final List<Object> ancestors;
+        private final BooleanSupplier stopped;
+        private final Workers workers;
+        /** The nodes of the directory, and the task listing each that is a directory itself */
+        final ArrayList<Node<File>> sub_nodes = new ArrayList<>();
+        final ArrayList<Future<ListTask>> tasks = new ArrayList<>();
+
+        /**
+         * @param ancestors the keys of the directory and of the directories above it
+         */
+        ListTask(Node<File> directory, List<Object> ancestors, BooleanSupplier stopped, Workers workers){
+            this.directory = directory;
+            this.ancestors = ancestors;
+            this.stopped = stopped;
+            this.workers = workers;
+        }
+
+        @Override
+        public ListTask call() {
+            if(!stopped.getAsBoolean()) list(directory, ancestors, sub_nodes);
+            for(Node<File> node : sub_nodes){
+                Future<ListTask> task = null;
+                if(node.getUser_data().isDirectory()) {
+                    ArrayList<Object> keys = new ArrayList<>(ancestors);
+                    keys.add(((ScannedFile) node.getUser_data()).key);
+                    task = workers.submit(new ListTask(node, keys, stopped, workers));
+                }
+                tasks.add(task);
+            }
+            setSubNodes(directory, sub_nodes);
+            return this;
+        }
+    }
+
+    /**
+     * Lists the directory of the node through {@link Files#walkFileTree}, which hands over the attributes of every file along with the listing
+     * @param ancestors the keys of the directories above, a link to any of them is left out
+     * @param ret the nodes of the files and directories not left out, in the order listed
+     */
+    private void list(Node<File> directory, List<Object> ancestors, List<Node<File>> ret){
+        Path dir = directory.getUser_data().toPath();
+        try {
+            Files.walkFileTree(dir, EnumSet.of(FileVisitOption.FOLLOW_LINKS), 1, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                    if(excluded(path)) return FileVisitResult.CONTINUE;
+                    if(attrs.isDirectory()) {
+                        if(attrs.fileKey() != null && ancestors.contains(attrs.fileKey())) {
+                            Log.warn(TAG, "Left out " + path + ": it links to a directory above it");
+                            return FileVisitResult.CONTINUE;
+                        }
+                    } else if(!included(path)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    ret.add(newNode(directory, path, attrs));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path path, IOException e) {
+                    if(path.equals(dir)) Log.warn(TAG, "Could not list all of " + dir + ": " + e);
+                    else Log.warn(TAG, "Left out " + path + ": " + e);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path path, IOException e) {
+                    if(e != null) Log.warn(TAG, "Could not list all of " + dir + ": " + e);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            Log.warn(TAG, "Could not list all of " + dir + ": " + e);
+        }
+    }
+
+    private Node<File> newNode(Node<File> parent, Path path, BasicFileAttributes attrs){
+        String prefix = parent.path.equals("/") ? "" : parent.path;
+        Node<File> ret = Node.newNode(null, new ScannedFile(path, attrs), prefix + File.separator + path.getFileName(), (Node<File>[]) null);
+        ret.modified = attrs.lastModifiedTime().toMillis();
+        return ret;
+    }
+
+    /**
+     * Every directory has a list of sub nodes, empty if nothing in it is scanned; it is told apart from a file by it, once extracted too
+     */
+    private static void setSubNodes(Node<File> directory, ArrayList<Node<File>> sub_nodes){
+        directory.sub_nodes = sub_nodes;
+    }
+
+    private boolean excluded(Path path){
+        return matches(exclude, names_only_exclude, path);
+    }
+
+    private boolean included(Path path){
+        return include.isEmpty() || matches(include, names_only_include, path);
+    }
+
+    private boolean matches(List<PathMatcher> matchers, boolean[] names_only, Path path){
+        if(matchers.isEmpty()) return false;
+        Path relative = top.relativize(path), name = path.getFileName();
+        for(int x = 0; x < matchers.size(); x++){
+            if(matchers.get(x).matches(names_only[x] ? name : relative)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * A file whose attributes were read while scanning, they are not read again
+     */
+    static final class ScannedFile extends File {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean directory;
+        private final long length, modified;
+        /** Identifies the file on the file system, if supported; used to tell links to directories above apart */
+        final transient Object key;
+
+        ScannedFile(Path path, BasicFileAttributes attributes){
+            super(path.toString());
+            this.directory = attributes.isDirectory();
+            this.length = attributes.size();
+            this.modified = attributes.lastModifiedTime().toMillis();
+            this.key = attributes.fileKey();
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return directory;
+        }
+
+        @Override
+        public boolean isFile() {
+            return !directory;
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public long lastModified() {
+            return modified;
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+    }
+}
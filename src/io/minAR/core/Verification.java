@@ -0,0 +1,95 @@
+package io.minAR.core;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of verifying an archive, lists the files found damaged along with what is wrong with each
+ * @author nikhil
+ * @see ArchiveReader#verify(int, boolean)
+ * @since 0.0.2
+ */
+public final class Verification {
+
+    private final Path archive;
+    private final int files, entries;
+    private final long bytes, nanos;
+    /** What is wrong with every file damaged, keyed by its path, in the order of the archive */
+    private final LinkedHashMap<String, String> damaged;
+
+    Verification(Path archive, int files, int entries, long bytes, long nanos, LinkedHashMap<String, String> damaged){
+        this.archive = archive;
+        this.files = files;
+        this.entries = entries;
+        this.bytes = bytes;
+        this.nanos = nanos;
+        this.damaged = damaged;
+    }
+
+    /**
+     * @return whether no file of the archive is damaged
+     */
+    public boolean isIntact(){
+        return damaged.isEmpty();
+    }
+
+    /**
+     * @return the internal paths of the files damaged, in the order of the archive; "/" if the file tree itself is
+     */
+    public List<String> getDamaged(){
+        return Collections.unmodifiableList(new ArrayList<>(damaged.keySet()));
+    }
+
+    /**
+     * @param path the internal path of a file damaged
+     * @return what is wrong with the file, null if it is not damaged
+     */
+    public String getProblem(String path){
+        return damaged.get(path);
+    }
+
+    /**
+     * @return what is wrong with every file damaged, keyed by its internal path
+     */
+    public Map<String, String> getProblems(){
+        return Collections.unmodifiableMap(damaged);
+    }
+
+    public Path getArchive(){
+        return archive;
+    }
+
+    /**
+     * @return the number of files checked
+     */
+    public int getFiles(){
+        return files;
+    }
+
+    /**
+     * @return the number of entries checked, fewer than the files if the archive has solid blocks or duplicates
+     */
+    public int getEntries(){
+        return entries;
+    }
+
+    /**
+     * @return the bytes of the entries read, as they are stored in the archive
+     */
+    public long getBytes(){
+        return bytes;
+    }
+
+    public long getMillis(){
+        return nanos / 1000000;
+    }
+
+    @Override
+    public String toString() {
+        return "[archive:" + archive + " files:" + files + " entries:" + entries + " bytes:" + bytes + " ms:" + getMillis() + " damaged:" + damaged.size() + "]";
+    }
+}
@@ -0,0 +1,82 @@
+package io.minAR.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A pool of the buffers used while copying, compressing and encrypting the entries of an archive, so that they are not allocated afresh per file.
+ * Every thread keeps up to {@link #MAX_RETAINED} released buffers of its own, a buffer is handed out again only to the thread it was released on;
+ * hence the pool takes no locks. A buffer must not be used once released, nor released twice.
+ * @author nikhil
+ * @since 0.0.2
+ */
+public final class Buffers {
+
+    /** The most buffers kept by a thread */
+    public static final int MAX_RETAINED = 16;
+    /** Buffers larger than it are never kept, 1 MB */
+    public static final int MAX_RETAINED_SIZE = 1 << 20;
+
+    /** The size of the direct buffer of every thread, 1 MB */
+    public static final int DIRECT_SIZE = 1 << 20;
+
+    private static final ThreadLocal<byte[][]> free = ThreadLocal.withInitial(() -> new byte[MAX_RETAINED][]);
+    private static final ThreadLocal<ByteBuffer> direct = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(DIRECT_SIZE));
+
+    private Buffers(){}
+
+    /**
+     * @return a buffer of {@link Streams#DEFAULT_BUFFER_SIZE}
+     */
+    public static byte[] take(){
+        return take(Streams.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * The direct buffer of the calling thread, for reading channels without copying their contents onto the heap.
+     * It is shared by every caller on the thread, hence must not be held across calls that may use it too.
+     * @return the buffer, cleared
+     */
+    public static ByteBuffer direct(){
+        ByteBuffer ret = direct.get();
+        ret.clear();
+        return ret;
+    }
+
+    /**
+     * Take a buffer of the given size out of the pool of the calling thread, one is allocated if none is free.
+     * Its contents are not cleared.
+     * @param size the size of the buffer, in bytes
+     * @return the buffer, of exactly the size
+     */
+    public static byte[] take(int size){
+        byte[][] slots = free.get();
+        for(int x = 0; x < slots.length; x++){
+            byte[] buffer = slots[x];
+            if(buffer != null && buffer.length == size) {
+                slots[x] = null;
+                return buffer;
+            }
+        }
+        return new byte[size];
+    }
+
+    /**
+     * Return the buffer to the pool of the calling thread, it is dropped if the buffer is larger than {@link #MAX_RETAINED_SIZE}.
+     * If the pool is full, the buffer takes the place of one of another size; it is dropped if every buffer kept is of its size.
+     * @param buffer the buffer, null is ignored
+     */
+    public static void release(byte[] buffer){
+        if(buffer == null || buffer.length > MAX_RETAINED_SIZE) return;
+        byte[][] slots = free.get();
+        int other = -1;
+        for(int x = 0; x < slots.length; x++){
+            if(slots[x] == null) {
+                slots[x] = buffer;
+                return;
+            }
+            if(other < 0 && slots[x].length != buffer.length) other = x;
+        }
+        if(other >= 0) slots[other] = buffer;
+    }
+
+}
@@ -0,0 +1,256 @@
+package io.minAR.util;
+
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.UnsupportedOptionsException;
+import org.tukaani.xz.XZOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A compression codec, the contents of the files of an archive are compressed with one codec, whose id is recorded in the header of the archive.
+ * Codecs are looked up by their id while extracting, hence every codec other than the built in ones must be {@link #register(Codec) registered} first.
+ * <table border="1">
+ * <tr><td>Id</td><td>Codec</td></tr>
+ * <tr><td>0</td><td>{@link #STORE}, the contents are stored as they are</td></tr>
+ * <tr><td>1</td><td>{@link #XZ}, the best ratio, but the slowest</td></tr>
+ * <tr><td>2</td><td>{@link #DEFLATE}, several times faster, at a lower ratio</td></tr>
+ * </table>
+ * @author nikhil
+ * @since 0.0.2
+ */
+public interface Codec {
+
+    /** Stores the contents as they are */
+    Codec STORE = new Codec() {
+        @Override
+        public int getId() {
+            return 0;
+        }
+
+        @Override
+        public String getName() {
+            return "store";
+        }
+
+        @Override
+        public OutputStream compressStream(OutputStream out) {
+            return out;
+        }
+
+        @Override
+        public InputStream decompressStream(InputStream in) {
+            return in;
+        }
+    };
+
+    /** xz, with the default preset of {@link Compressor} */
+    Codec XZ = new Codec() {
+        @Override
+        public int getId() {
+            return 1;
+        }
+
+        @Override
+        public String getName() {
+            return "xz";
+        }
+
+        @Override
+        public OutputStream compressStream(OutputStream out) throws IOException {
+            return Compressor.compressStream(out);
+        }
+
+        @Override
+        public InputStream decompressStream(InputStream in) throws IOException {
+            return Compressor.decompressStream(in);
+        }
+    };
+
+    /** Deflate, at the fastest level */
+    Codec DEFLATE = deflate(Deflater.BEST_SPEED);
+
+    /**
+     * @return the id of the codec, recorded in the header of the archive; a single byte
+     */
+    int getId();
+
+    /**
+     * @return the name of the codec, for messages
+     */
+    String getName();
+
+    /**
+     * Wraps the {@link OutputStream} such that the data written is compressed.
+     * Closing the returned stream finishes the compressed data and closes the wrapped stream.
+     * @param out the stream to contain the compressed data
+     * @return the compressing stream
+     * @throws IOException if the stream fails
+     */
+    OutputStream compressStream(OutputStream out) throws IOException;
+
+    /**
+     * Wraps the {@link InputStream} such that its contents are decompressed as they are read
+     * @param in the stream containing the compressed data
+     * @return the decompressing stream
+     * @throws IOException if the stream does not begin with valid compressed data
+     */
+    InputStream decompressStream(InputStream in) throws IOException;
+
+    /**
+     * Creates an xz codec with the given preset, archives written with any preset are read by {@link #XZ}
+     * @param preset the preset, 0 (fastest) to 9 (smallest)
+     * @return the codec
+     */
+    static Codec xz(int preset){
+        LZMA2Options options;
+        try {
+            options = new LZMA2Options(preset);
+        } catch (UnsupportedOptionsException e) {
+            throw new IllegalArgumentException("Invalid xz preset: " + preset, e);
+        }
+        return new Codec() {
+            @Override
+            public int getId() {
+                return XZ.getId();
+            }
+
+            @Override
+            public String getName() {
+                return "xz-" + preset;
+            }
+
+            @Override
+            public OutputStream compressStream(OutputStream out) throws IOException {
+                return new XZOutputStream(out, options, Compressor.arrayCache);
+            }
+
+            @Override
+            public InputStream decompressStream(InputStream in) throws IOException {
+                return Compressor.decompressStream(in);
+            }
+        };
+    }
+
+    /**
+     * Creates a deflate codec with the given level, archives written with any level are read by {@link #DEFLATE}.
+     * The deflaters and inflaters of the streams, along with their buffers, are reset and kept for the next stream once closed.
+     * @param level the level, {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}
+     * @return the codec
+     */
+    static Codec deflate(int level){
+        if(level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) throw new IllegalArgumentException("Invalid deflate level: " + level);
+        ArrayBlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(Registry.MAX_RETAINED);
+        ArrayBlockingQueue<Inflater> inflaters = new ArrayBlockingQueue<>(Registry.MAX_RETAINED);
+        return new Codec() {
+            @Override
+            public int getId() {
+                return 2;
+            }
+
+            @Override
+            public String getName() {
+                return "deflate-" + level;
+            }
+
+            @Override
+            public OutputStream compressStream(OutputStream out) {
+                Deflater pooled = deflaters.poll();
+                Deflater deflater = pooled != null ? pooled : new Deflater(level);
+                // The deflater is not ended by the stream, as it was not created by it
+                return new DeflaterOutputStream(out, deflater, 1){
+                    {
+                        buf = Buffers.take();
+                    }
+                    boolean closed;
+
+                    @Override
+                    public void close() throws IOException {
+                        if(closed) return;
+                        closed = true;
+                        try {
+                            super.close();
+                        } finally {
+                            Buffers.release(buf);
+                            deflater.reset();
+                            if(!deflaters.offer(deflater)) deflater.end();
+                        }
+                    }
+                };
+            }
+
+            @Override
+            public InputStream decompressStream(InputStream in) {
+                Inflater pooled = inflaters.poll();
+                Inflater inflater = pooled != null ? pooled : new Inflater();
+                return new InflaterInputStream(in, inflater, 1){
+                    {
+                        buf = Buffers.take();
+                    }
+                    boolean closed;
+
+                    @Override
+                    public void close() throws IOException {
+                        if(closed) return;
+                        closed = true;
+                        try {
+                            super.close();
+                        } finally {
+                            Buffers.release(buf);
+                            inflater.reset();
+                            if(!inflaters.offer(inflater)) inflater.end();
+                        }
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Make a codec available to archives, under its id
+     * @param codec the codec to be registered
+     * @throws IllegalArgumentException if the id is not a single byte, or is taken by another codec
+     */
+    static void register(Codec codec){
+        if(codec.getId() < 0 || codec.getId() > 0xff) throw new IllegalArgumentException("Codec id must be a single byte: " + codec.getId());
+        Codec existing = Registry.codecs.putIfAbsent(codec.getId(), codec);
+        if(existing != null && existing != codec) throw new IllegalArgumentException("Codec id " + codec.getId() + " is taken by " + existing.getName());
+    }
+
+    /**
+     * Find the codec with the given id
+     * @param id the id recorded in the archive
+     * @return the codec
+     * @throws IOException if no codec with the id is registered
+     */
+    static Codec forId(int id) throws IOException {
+        Codec ret = Registry.codecs.get(id);
+        if(ret == null) throw new IOException("Unknown codec " + id + ", it must be registered before the archive is read");
+        return ret;
+    }
+
+    /**
+     * Holds the registered codecs, interfaces can not have static fields of their own that are not constants
+     */
+    final class Registry {
+        static final Map<Integer, Codec> codecs = new ConcurrentHashMap<>();
+        /** The most deflaters, and inflaters, a deflate codec keeps for its next streams */
+        static final int MAX_RETAINED = 16;
+        static {
+            codecs.put(STORE.getId(), STORE);
+            codecs.put(XZ.getId(), XZ);
+            codecs.put(DEFLATE.getId(), DEFLATE);
+        }
+
+        private Registry(){}
+    }
+
+}
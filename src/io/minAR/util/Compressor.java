@@ -1,5 +1,7 @@
 package io.minAR.util;
 
+import org.tukaani.xz.ArrayCache;
+import org.tukaani.xz.BasicArrayCache;
 import org.tukaani.xz.LZMA2Options;
 import org.tukaani.xz.XZInputStream;
 import org.tukaani.xz.XZOutputStream;
@@ -16,7 +18,13 @@ import java.io.*;
  */
 public class Compressor {
 
-    static LZMA2Options lzma2Options = new LZMA2Options();
+    /** Shared by every thread, hence never changed */
+    static final LZMA2Options lzma2Options = new LZMA2Options();
+    /**
+     * Recycles the dictionaries and other arrays of the xz streams once they are closed, rather than allocating several MB per stream.
+     * Shared by every thread, the arrays are held softly.
+     */
+    static final ArrayCache arrayCache = BasicArrayCache.getInstance();
 
     /**
      * Compress the contents of the {@link InputStream}
@@ -25,21 +33,39 @@ public class Compressor {
      */
     public static byte[] compress(InputStream inputStream){
         ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        byte[] buffer = new byte[0xffff];
-
-        try {
-            XZOutputStream outputStream = new XZOutputStream(byteArrayOutputStream, lzma2Options);
-            for(int len = inputStream.read(buffer); len != -1; len = inputStream.read(buffer)){
-                outputStream.write(buffer, 0, len);
-            }
-            outputStream.close();
-            byteArrayOutputStream.close();
+        byte[] buffer = Buffers.take();
+        try (XZOutputStream outputStream = new XZOutputStream(byteArrayOutputStream, lzma2Options, arrayCache)){
+            Streams.copy(inputStream, outputStream, buffer);
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            Buffers.release(buffer);
         }
         return byteArrayOutputStream.toByteArray();
     }
 
+    /**
+     * Wraps the {@link OutputStream} such that the data written is compressed, several files may be written into one stream.
+     * The returned stream must be finished, or closed, once all data is written; finishing does not close the wrapped stream.
+     * Closing it recycles its arrays too.
+     * @param outputStream the stream to contain the compressed data
+     * @return the compressing stream
+     * @throws IOException if the stream fails
+     */
+    public static XZOutputStream compressStream(OutputStream outputStream) throws IOException {
+        return new XZOutputStream(outputStream, lzma2Options, arrayCache);
+    }
+
+    /**
+     * Wraps the {@link InputStream} such that its contents are decompressed as they are read, closing it recycles its arrays
+     * @param compressed the stream containing the compressed data
+     * @return the decompressing stream
+     * @throws IOException if the stream does not begin with a valid xz header
+     */
+    public static InputStream decompressStream(InputStream compressed) throws IOException {
+        return new XZInputStream(compressed, arrayCache);
+    }
+
     /**
      * Decompress the contents of the {@link InputStream}
      * @param compressed the {@link InputStream} containing the compressed data
@@ -47,16 +73,13 @@ public class Compressor {
      */
     public static byte[] decompress(InputStream compressed){
         ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        byte[] buffer = new byte[0xffff];
-        try {
-            XZInputStream xzInputStream = new XZInputStream(compressed);
-            for(int len = xzInputStream.read(buffer); len != -1; len = xzInputStream.read(buffer)){
-                byteArrayOutputStream.write(buffer, 0, len);
-            }
-            xzInputStream.close();
-            byteArrayOutputStream.close();
+        byte[] buffer = Buffers.take();
+        try (XZInputStream xzInputStream = new XZInputStream(compressed, arrayCache)){
+            Streams.copy(xzInputStream, byteArrayOutputStream, buffer);
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            Buffers.release(buffer);
         }
         return byteArrayOutputStream.toByteArray();
     }
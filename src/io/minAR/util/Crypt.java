@@ -3,33 +3,70 @@ package io.minAR.util;
 import com.esotericsoftware.minlog.Log;
 
 import javax.crypto.*;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
-import java.io.IOException;
+import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
 import java.util.Base64;
 
 /**
  * A utility class, mainly helps in encryption of the archives.
- * Contains helper methods for <code>byte[]</code> encryption
+ * Archives are encrypted with AES/GCM in authenticated chunks, see {@link #encryptChunked(OutputStream, SecretKey)}; DES/ECB is only read,
+ * out of the archives written before, see {@link #decryptLegacy(InputStream, SecretKey)}. The cipher of an archive is recorded in its header,
+ * keys are read as they are and used with that cipher.
+ * Neither ciphers nor key generators are thread-safe, hence every thread has its own; archives may then be written and read on many threads at once.
  * @author nikhil
  * @see Cipher
  * @see SecretKey
  * @since 0.0.1
  */
 public class Crypt {
-    private static KeyGenerator keyGenerator;
-    private static Cipher cipher;
+    private static final String LEGACY_TRANSFORMATION = "DES/ECB/PKCS5Padding";
+    private static final String CHUNK_TRANSFORMATION = "AES/GCM/NoPadding";
+    /** The size of the plain text encrypted and authenticated as one chunk */
+    public static final int CHUNK_SIZE = 0x10000;
+    /** The largest chunk accepted while decrypting, guards against corrupt lengths */
+    private static final int MAX_CHUNK_SIZE = 1 << 24;
+    private static final int TAG_BITS = 128;
+    private static final int TAG_SIZE = TAG_BITS / 8;
+    /** The additional authenticated data of the chunks, marking whether a chunk is the last one or not */
+    private static final byte[] AAD_LAST = {1}, AAD_MORE = {0};
+    private static final int NONCE_PREFIX_SIZE = 8;
+    /** Marks the last chunk of a stream, set in its length */
+    private static final int LAST_CHUNK = 0x80000000;
+    /** The algorithm of the keys read, which tells nothing of the cipher; they are used with the cipher of the archive, see {@link #keyFor(SecretKey, String)} */
+    private static final String RAW = "RAW";
+    private static final SecureRandom random = new SecureRandom();
+    /** The AES key generator of each thread */
+    private static final ThreadLocal<KeyGenerator> chunk_key_generator = perThread(() -> {
+        KeyGenerator ret = KeyGenerator.getInstance("AES");
+        ret.init(128);
+        return ret;
+    });
+    /** The chunk cipher of each thread, re-initialized for every chunk */
+    private static final ThreadLocal<Cipher> chunk_cipher = perThread(() -> Cipher.getInstance(CHUNK_TRANSFORMATION));
 
-    static {
-        try {
-            keyGenerator = KeyGenerator.getInstance("DES");
-            cipher = Cipher.getInstance("DES/ECB/PKCS5Padding");
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
-            Log.error(e.getMessage(), e);
-        }
+    /**
+     * Creates an instance of a provider
+     */
+    private interface Factory<T> {
+        T create() throws GeneralSecurityException;
+    }
+
+    /**
+     * @param factory creates the instance of every thread, it fails with an {@link IllegalStateException} if the algorithm is not available
+     */
+    private static <T> ThreadLocal<T> perThread(Factory<T> factory){
+        return ThreadLocal.withInitial(() -> {
+            try {
+                return factory.create();
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
     }
 
     /**
@@ -65,34 +102,39 @@ public class Crypt {
     }
 
     /**
-     * Encrypts the given data through a timely generated key.
+     * Encrypts the given data through a timely generated key, in authenticated chunks as {@link #encryptChunked(OutputStream, SecretKey)} does
      * @param data the <code>byte[]</code> to be encrypted
      * @return an {@link ENC_OBJECT} containing the encrypted data as {@code raw} and the secret key
      */
     public static ENC_OBJECT encrypt(byte[] data){
-        byte[] ret = null; SecretKey secretKey = null;
-        try {
-            secretKey = keyGenerator.generateKey();
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey);
-            ret = cipher.doFinal(data);
-        } catch (InvalidKeyException | IllegalBlockSizeException | BadPaddingException e) {
+        SecretKey secretKey = generateKey();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length + data.length / CHUNK_SIZE * (TAG_SIZE + 4) + 64);
+        try (OutputStream os = encryptChunked(baos, secretKey)){
+            os.write(data);
+        } catch (IOException e) {
             Log.error(e.getMessage(), e);
         }
-        return ENC_OBJECT.getInstance(ret, secretKey);
+        return ENC_OBJECT.getInstance(baos.toByteArray(), secretKey);
     }
 
     /**
-     * Decrypt the given byte array using the secret key
+     * Decrypt the given byte array using the secret key, the inverse of {@link #encrypt(byte[])}
      * @param encrypted the encrypted bytes
      * @param secretKey the secret key needed for decryption
-     * @return the decrypted bytes
+     * @return the decrypted bytes, null if they do not authenticate
      */
     public static byte[] decrypt(byte[] encrypted, SecretKey secretKey){
         byte[] ret = null;
-        try {
-            cipher.init(Cipher.DECRYPT_MODE, secretKey);
-            ret = cipher.doFinal(encrypted);
-        } catch (InvalidKeyException | IllegalBlockSizeException | BadPaddingException e) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(encrypted.length);
+        try (InputStream is = decryptChunked(new ByteArrayInputStream(encrypted), secretKey)){
+            byte[] buffer = Buffers.take();
+            try {
+                for(int len = is.read(buffer); len != -1; len = is.read(buffer)) baos.write(buffer, 0, len);
+            } finally {
+                Buffers.release(buffer);
+            }
+            ret = baos.toByteArray();
+        } catch (IOException e) {
             Log.error(e.getMessage(), e);
         }
         return ret;
@@ -104,16 +146,236 @@ public class Crypt {
      * @return the decrypted bytes
      */
     public static byte[] decrypt(ENC_OBJECT encrypted){
-        byte[] ret = null;
+        return decrypt(encrypted.raw, encrypted.secretKey);
+    }
+
+    /**
+     * Generates a new AES secret key, to be used with {@link #encryptChunked(OutputStream, SecretKey)}
+     * @return the secret key
+     */
+    public static SecretKey generateKey(){
+        return chunk_key_generator.get().generateKey();
+    }
+
+    /**
+     * Wraps the output stream such that everything written through it is encrypted with AES/GCM, in authenticated chunks of {@link #CHUNK_SIZE}.
+     * The stream begins with a random nonce prefix, each chunk is then written as its length followed by the cipher text and tag.
+     * The nonce of a chunk is the prefix followed by the index of the chunk, the last chunk is marked, so that a truncated stream is detected.
+     * Only one chunk is held in memory at once, in buffers taken out of the {@link Buffers} pool, and the cipher is that of the thread writing.
+     * @param os the stream to contain the encrypted bytes
+     * @param secretKey the AES secret key, or one read as it is
+     * @return the encrypting stream, the last chunk is written only when it is closed
+     */
+    public static OutputStream encryptChunked(OutputStream os, SecretKey secretKey) throws IOException {
+        byte[] prefix = new byte[NONCE_PREFIX_SIZE];
+        random.nextBytes(prefix);
+        os.write(prefix);
+        return new ChunkedOutputStream(os, secretKey, prefix);
+    }
+
+    /**
+     * Wraps the input stream such that everything read through it is decrypted and authenticated, chunk by chunk
+     * @param is the stream containing the output of {@link #encryptChunked(OutputStream, SecretKey)}
+     * @param secretKey the AES secret key, or one read as it is
+     * @return the decrypting stream, which fails with an {@link IOException} if a chunk does not authenticate, or the stream is truncated
+     */
+    public static InputStream decryptChunked(InputStream is, SecretKey secretKey) throws IOException {
+        DataInputStream in = new DataInputStream(is);
+        byte[] prefix = new byte[NONCE_PREFIX_SIZE];
+        in.readFully(prefix);
+        return new ChunkedInputStream(in, secretKey, prefix);
+    }
+
+    /**
+     * Encrypts or decrypts a chunk into the output buffer
+     * @param nonce the nonce of the stream, its prefix is kept and the index of the chunk filled in
+     * @return the number of bytes written into the output
+     */
+    private static int doChunk(int mode, SecretKey secretKey, byte[] nonce, int index, boolean last, byte[] data, int len, byte[] output) throws IOException {
+        nonce[8] = (byte) (index >>> 24);
+        nonce[9] = (byte) (index >>> 16);
+        nonce[10] = (byte) (index >>> 8);
+        nonce[11] = (byte) index;
         try {
-            cipher.init(Cipher.DECRYPT_MODE, encrypted.secretKey);
-            ret = cipher.doFinal(encrypted.raw);
-        } catch (InvalidKeyException | IllegalBlockSizeException | BadPaddingException e) {
-            Log.error(e.getMessage(), e);
+            Cipher cipher = chunk_cipher.get();
+            cipher.init(mode, secretKey, new GCMParameterSpec(TAG_BITS, nonce));
+            cipher.updateAAD(last ? AAD_LAST : AAD_MORE);
+            return cipher.doFinal(data, 0, len, output, 0);
+        } catch (AEADBadTagException e) {
+            throw new IOException("Chunk " + index + " failed authentication", e);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
         }
+    }
+
+    private static byte[] nonce(byte[] prefix){
+        byte[] ret = new byte[NONCE_PREFIX_SIZE + 4];
+        System.arraycopy(prefix, 0, ret, 0, NONCE_PREFIX_SIZE);
         return ret;
     }
 
+    /**
+     * Buffers a chunk of plain text at a time, a full chunk is encrypted only once more is written, so that the last chunk is known on close
+     */
+    private static class ChunkedOutputStream extends FilterOutputStream {
+        private final SecretKey secretKey;
+        private final byte[] nonce;
+        private byte[] chunk = Buffers.take(CHUNK_SIZE);
+        private byte[] sealed = Buffers.take(CHUNK_SIZE + TAG_SIZE);
+        private int len, index;
+        private boolean closed;
+
+        ChunkedOutputStream(OutputStream out, SecretKey secretKey, byte[] prefix){
+            super(out);
+            this.secretKey = keyFor(secretKey, "AES");
+            this.nonce = nonce(prefix);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int length) throws IOException {
+            if(closed) throw new IOException("Stream closed");
+            while (length > 0) {
+                if(len == chunk.length) writeChunk(false);
+                int n = Math.min(length, chunk.length - len);
+                System.arraycopy(b, off, chunk, len, n);
+                len += n;
+                off += n;
+                length -= n;
+            }
+        }
+
+        private void writeChunk(boolean last) throws IOException {
+            int length = doChunk(Cipher.ENCRYPT_MODE, secretKey, nonce, index++, last, chunk, len, sealed);
+            int header = last ? length | LAST_CHUNK : length;
+            out.write(header >>> 24);
+            out.write(header >>> 16);
+            out.write(header >>> 8);
+            out.write(header);
+            out.write(sealed, 0, length);
+            len = 0;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(closed) return;
+            closed = true;
+            try {
+                writeChunk(true);
+                out.close();
+            } finally {
+                Buffers.release(chunk);
+                Buffers.release(sealed);
+                chunk = sealed = null;
+            }
+        }
+    }
+
+    /**
+     * Reads, decrypts and authenticates a chunk at a time, into buffers taken out of the {@link Buffers} pool
+     */
+    private static class ChunkedInputStream extends InputStream {
+        private final DataInputStream in;
+        private final SecretKey secretKey;
+        private final byte[] nonce;
+        private byte[] chunk = Buffers.take(CHUNK_SIZE);
+        private byte[] sealed = Buffers.take(CHUNK_SIZE + TAG_SIZE);
+        /** The number of bytes of plain text in the chunk */
+        private int limit;
+        private int position, index;
+        private boolean last, closed;
+
+        ChunkedInputStream(DataInputStream in, SecretKey secretKey, byte[] prefix){
+            this.in = in;
+            this.secretKey = keyFor(secretKey, "AES");
+            this.nonce = nonce(prefix);
+        }
+
+        private boolean nextChunk() throws IOException {
+            if(last) return false;
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                throw new IOException("Encrypted stream is truncated after chunk " + index, e);
+            }
+            last = (length & LAST_CHUNK) != 0;
+            length &= ~LAST_CHUNK;
+            if(length > MAX_CHUNK_SIZE) throw new IOException("Chunk " + index + " is too large: " + length);
+            if(sealed.length < length) {
+                // Chunks are no larger than CHUNK_SIZE unless written otherwise
+                Buffers.release(sealed);
+                Buffers.release(chunk);
+                sealed = Buffers.take(length);
+                chunk = Buffers.take(length);
+            }
+            in.readFully(sealed, 0, length);
+            limit = doChunk(Cipher.DECRYPT_MODE, secretKey, nonce, index++, last, sealed, length, chunk);
+            position = 0;
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(closed) throw new IOException("Stream closed");
+            while (position == limit) {
+                if(!nextChunk()) return -1;
+            }
+            int n = Math.min(len, limit - position);
+            System.arraycopy(chunk, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return limit - position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(closed) return;
+            closed = true;
+            Buffers.release(chunk);
+            Buffers.release(sealed);
+            chunk = sealed = null;
+            in.close();
+        }
+    }
+
+    /**
+     * Wraps the input stream such that everything read through it is decrypted with DES/ECB, as the whole file tree of the archives written
+     * before the header was introduced was encrypted; archives are no longer written so.
+     * @param is the stream containing the encrypted bytes
+     * @param secretKey the DES secret key, or one read as it is
+     * @return the decrypting stream
+     * @throws IOException if the cipher could not be initialized
+     */
+    public static InputStream decryptLegacy(InputStream is, SecretKey secretKey) throws IOException {
+        try {
+            Cipher cipher = Cipher.getInstance(LEGACY_TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, keyFor(secretKey, "DES"));
+            return new CipherInputStream(is, cipher);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+    }
+
     /**
      * Retrieves the secret key stored in the specified file
      * @param file the file containing the secret key
@@ -123,7 +385,7 @@ public class Crypt {
         SecretKey secretKey = null;
         try {
             byte[] encoded = Files.readAllBytes(Paths.get(file + ".key"));
-            secretKey = new SecretKeySpec(encoded, 0, encoded.length, "DES");
+            secretKey = new SecretKeySpec(encoded, 0, encoded.length, RAW);
         } catch (IOException e) {
             Log.error(e.getMessage(), e);
         }
@@ -147,7 +409,16 @@ public class Crypt {
      */
     public static SecretKey stringAsKey(String key){
         byte[] encoded = Base64.getDecoder().decode(key);
-        return new SecretKeySpec(encoded, 0, encoded.length, "DES");
+        return new SecretKeySpec(encoded, 0, encoded.length, RAW);
+    }
+
+    /**
+     * @return the key for the cipher of the algorithm, keys read as they are take the algorithm of the cipher they are used with
+     */
+    private static SecretKey keyFor(SecretKey secretKey, String algorithm){
+        if(secretKey.getAlgorithm().equalsIgnoreCase(algorithm)) return secretKey;
+        byte[] encoded = secretKey.getEncoded();
+        return new SecretKeySpec(encoded, 0, encoded.length, algorithm);
     }
 
 }
@@ -0,0 +1,323 @@
+package io.minAR.util;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Counters of the archives being written and extracted: the files and bytes handled, the time spent in every {@link Stage},
+ * the depths of the queues of a pipelined archive, and histograms of the file sizes and of the time spent compressing.
+ * Every counter is updated without locks, hence one instance can be shared by any number of jobs running at once, its counters then add up.
+ * <p>
+ * {@link Listener}s are notified of every file as it is done, and of every job; the metrics can be watched through JMX once {@link #register(String) registered}.
+ * @author nikhil
+ * @since 0.0.2
+ */
+public final class Metrics implements MetricsMXBean {
+
+    /**
+     * The stages the time of a job is spent in.
+     * Unless an archive is pipelined, the files are read, compressed and encrypted on the same thread,
+     * that time is then recorded against {@link #COMPRESS} as a whole.
+     */
+    public enum Stage {
+        /** Reading the files */
+        READ,
+        /** Compressing the files */
+        COMPRESS,
+        /** Encrypting the compressed files */
+        ENCRYPT,
+        /** Writing, or copying, the entries into the archive */
+        WRITE,
+        /** Reading, decrypting and decompressing the entries of an archive into their files */
+        EXTRACT
+    }
+
+    /**
+     * Notified as the files of a job are done, on the thread that handled them; hence it must be thread-safe if the job is extracted on several threads.
+     * It must return quickly, as the job waits for it.
+     */
+    public interface Listener {
+        /**
+         * @param path the path of the file within the archive
+         * @param raw_length the size of the file
+         * @param length the bytes of its entry in the archive, 0 for all but the first file of a solid block
+         * @param metrics the metrics the file was recorded in
+         */
+        void fileDone(String path, long raw_length, long length, Metrics metrics);
+
+        /**
+         * Called once the job is done, whether it succeeded or not
+         * @param metrics the metrics of the job
+         */
+        default void jobDone(Metrics metrics) {}
+    }
+
+    /**
+     * Counts of values in buckets of powers of 2, bucket 0 counts zero, bucket <code>i</code> counts values from <code>2^(i-1)</code> up to <code>2^i</code>.
+     */
+    public static final class Histogram {
+        private final AtomicLongArray counts = new AtomicLongArray(65);
+
+        public void record(long value){
+            counts.incrementAndGet(64 - Long.numberOfLeadingZeros(Math.max(0, value)));
+        }
+
+        /**
+         * @return the count of every bucket, up to the last that is not empty
+         */
+        public long[] getCounts(){
+            int last = counts.length() - 1;
+            while (last >= 0 && counts.get(last) == 0) last--;
+            long[] ret = new long[last + 1];
+            for(int x = 0; x <= last; x++) ret[x] = counts.get(x);
+            return ret;
+        }
+
+        /**
+         * @param percentile from 0 to 100
+         * @return the upper bound of the bucket the percentile falls into, 0 if nothing was recorded
+         */
+        public long percentile(double percentile){
+            long[] buckets = getCounts();
+            long total = 0;
+            for(long count : buckets) total += count;
+            long rank = (long) Math.ceil(percentile / 100 * total), seen = 0;
+            for(int x = 0; x < buckets.length; x++){
+                seen += buckets[x];
+                if(seen >= rank && seen > 0) return x == 0 ? 0 : x == 64 ? Long.MAX_VALUE : 1L << x;
+            }
+            return 0;
+        }
+
+        void reset(){
+            for(int x = 0; x < counts.length(); x++) counts.set(x, 0);
+        }
+    }
+
+    private final LongAdder files = new LongAdder(), raw_bytes = new LongAdder(), archived_bytes = new LongAdder();
+    private final LongAdder[] stage_bytes = new LongAdder[Stage.values().length], stage_nanos = new LongAdder[Stage.values().length];
+    private final Histogram file_sizes = new Histogram(), compress_micros = new Histogram();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile long expected_files, expected_bytes;
+    private volatile long started = System.nanoTime();
+    /** The depths of the queues of the pipeline running, keyed by stage; empty if none is */
+    private volatile Map<String, IntSupplier> queues = new LinkedHashMap<>();
+    private ObjectName name;
+
+    public Metrics(){
+        for(int x = 0; x < stage_bytes.length; x++){
+            stage_bytes[x] = new LongAdder();
+            stage_nanos[x] = new LongAdder();
+        }
+    }
+
+    public void addListener(Listener listener){
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener){
+        listeners.remove(listener);
+    }
+
+    /**
+     * Record the files a job is about to handle, so that its progress can be told
+     * @param files the number of files
+     * @param bytes the bytes of the files
+     */
+    public void expect(long files, long bytes){
+        expected_files = files;
+        expected_bytes = bytes;
+    }
+
+    /**
+     * Record the time spent in a stage
+     * @param stage the stage
+     * @param bytes the bytes handled, of the files for every stage but {@link Stage#ENCRYPT} and {@link Stage#WRITE}, which handle those of the entries
+     * @param nanos the time spent
+     */
+    public void record(Stage stage, long bytes, long nanos){
+        stage_bytes[stage.ordinal()].add(bytes);
+        stage_nanos[stage.ordinal()].add(nanos);
+        if(stage == Stage.COMPRESS) compress_micros.record(nanos / 1000);
+    }
+
+    /**
+     * Record a file done, and notify the listeners
+     * @see Listener#fileDone(String, long, long, Metrics)
+     */
+    public void fileDone(String path, long raw_length, long length){
+        files.increment();
+        raw_bytes.add(raw_length);
+        archived_bytes.add(length);
+        file_sizes.record(raw_length);
+        for(Listener listener : listeners) listener.fileDone(path, raw_length, length, this);
+    }
+
+    /**
+     * Notify the listeners that a job is done
+     */
+    public void jobDone(){
+        for(Listener listener : listeners) listener.jobDone(this);
+    }
+
+    /**
+     * Watch the depths of the queues of a pipeline, till {@link #unwatchQueues()}
+     * @param queues the number of entries waiting in every queue, keyed by the stage taking from it
+     */
+    public void watchQueues(Map<String, IntSupplier> queues){
+        this.queues = queues;
+    }
+
+    public void unwatchQueues(){
+        this.queues = new LinkedHashMap<>();
+    }
+
+    /**
+     * Register the metrics with the platform MBean server, as <code>io.minAR:type=Metrics,name=</code>the given name
+     * @param name the name, unique among those registered
+     * @throws JMException if the name is not valid, or is already taken
+     */
+    public synchronized void register(String name) throws JMException {
+        ObjectName object_name = new ObjectName("io.minAR:type=Metrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, object_name);
+        this.name = object_name;
+    }
+
+    /**
+     * Unregister the metrics from the platform MBean server, if registered
+     * @throws JMException if the server fails to
+     */
+    public synchronized void unregister() throws JMException {
+        if(name == null) return;
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        name = null;
+    }
+
+    @Override
+    public long getFiles() {
+        return files.sum();
+    }
+
+    @Override
+    public long getExpectedFiles() {
+        return expected_files;
+    }
+
+    @Override
+    public long getRawBytes() {
+        return raw_bytes.sum();
+    }
+
+    @Override
+    public long getExpectedBytes() {
+        return expected_bytes;
+    }
+
+    @Override
+    public long getArchivedBytes() {
+        return archived_bytes.sum();
+    }
+
+    @Override
+    public double getCompressionRatio() {
+        long raw = raw_bytes.sum();
+        return raw == 0 ? 1 : (double) archived_bytes.sum() / raw;
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        return (System.nanoTime() - started) / 1000000;
+    }
+
+    @Override
+    public double getThroughput() {
+        return perSecond(raw_bytes.sum(), System.nanoTime() - started);
+    }
+
+    /**
+     * @return the time spent in the stage, in nanoseconds
+     */
+    public long getStageNanos(Stage stage){
+        return stage_nanos[stage.ordinal()].sum();
+    }
+
+    /**
+     * @return the bytes handled by the stage
+     */
+    public long getStageBytes(Stage stage){
+        return stage_bytes[stage.ordinal()].sum();
+    }
+
+    @Override
+    public Map<String, Long> getStageMillis() {
+        LinkedHashMap<String, Long> ret = new LinkedHashMap<>();
+        for(Stage stage : Stage.values()) ret.put(stage.name().toLowerCase(Locale.ROOT), getStageNanos(stage) / 1000000);
+        return ret;
+    }
+
+    @Override
+    public Map<String, Double> getStageThroughput() {
+        LinkedHashMap<String, Double> ret = new LinkedHashMap<>();
+        for(Stage stage : Stage.values()) ret.put(stage.name().toLowerCase(Locale.ROOT), perSecond(getStageBytes(stage), getStageNanos(stage)));
+        return ret;
+    }
+
+    @Override
+    public Map<String, Integer> getQueueDepths() {
+        LinkedHashMap<String, Integer> ret = new LinkedHashMap<>();
+        queues.forEach((stage, depth) -> ret.put(stage, depth.getAsInt()));
+        return ret;
+    }
+
+    public Histogram getFileSizes() {
+        return file_sizes;
+    }
+
+    public Histogram getCompressMicros() {
+        return compress_micros;
+    }
+
+    @Override
+    public long[] getFileSizeHistogram() {
+        return file_sizes.getCounts();
+    }
+
+    @Override
+    public long[] getCompressMicrosHistogram() {
+        return compress_micros.getCounts();
+    }
+
+    @Override
+    public void reset() {
+        files.reset();
+        raw_bytes.reset();
+        archived_bytes.reset();
+        for(int x = 0; x < stage_bytes.length; x++){
+            stage_bytes[x].reset();
+            stage_nanos[x].reset();
+        }
+        file_sizes.reset();
+        compress_micros.reset();
+        expected_files = expected_bytes = 0;
+        started = System.nanoTime();
+    }
+
+    private static double perSecond(long bytes, long nanos){
+        return nanos <= 0 ? 0 : bytes / (nanos / 1e9) / (1 << 20);
+    }
+
+    @Override
+    public String toString() {
+        return "[files:" + getFiles() + "/" + expected_files + " raw_bytes:" + getRawBytes() + " archived_bytes:" + getArchivedBytes()
+                + " stage_ms:" + getStageMillis() + " queues:" + getQueueDepths() + "]";
+    }
+}
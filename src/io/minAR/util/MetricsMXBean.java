@@ -0,0 +1,53 @@
+package io.minAR.util;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link Metrics}, as seen through JMX once registered with {@link Metrics#register(String)}
+ * @author nikhil
+ * @since 0.0.2
+ */
+public interface MetricsMXBean {
+
+    /** @return the files written into, or extracted out of, archives so far */
+    long getFiles();
+
+    /** @return the files the current job is expected to handle, 0 if not known */
+    long getExpectedFiles();
+
+    /** @return the bytes of the files written, or extracted, so far */
+    long getRawBytes();
+
+    /** @return the bytes of the files the current job is expected to handle, 0 if not known */
+    long getExpectedBytes();
+
+    /** @return the bytes of the entries written into archives, or read out of them, so far */
+    long getArchivedBytes();
+
+    /** @return the archived bytes per byte of the files, 1 if none were written */
+    double getCompressionRatio();
+
+    /** @return the time since the metrics were created or reset, in milliseconds */
+    long getElapsedMillis();
+
+    /** @return the bytes of the files handled per second since the metrics were created or reset, in MB */
+    double getThroughput();
+
+    /** @return the time spent in every stage, in milliseconds, keyed by the name of the stage */
+    Map<String, Long> getStageMillis();
+
+    /** @return the bytes handled per second of time spent in every stage, in MB, keyed by the name of the stage */
+    Map<String, Double> getStageThroughput();
+
+    /** @return the entries waiting in the queue of every stage of a pipelined archive being written, keyed by the name of the stage */
+    Map<String, Integer> getQueueDepths();
+
+    /** @return the counts of the sizes of the files, in bytes, see {@link Metrics.Histogram} */
+    long[] getFileSizeHistogram();
+
+    /** @return the counts of the time spent compressing every entry, in microseconds, see {@link Metrics.Histogram} */
+    long[] getCompressMicrosHistogram();
+
+    /** Resets every counter */
+    void reset();
+}
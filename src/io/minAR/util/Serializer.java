@@ -3,14 +3,21 @@ package io.minAR.util;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.FieldSerializer;
 import com.esotericsoftware.minlog.Log;
+import io.minAR.core.CompactTree;
 import io.minAR.core.Node;
+import io.minAR.core.NodeSerializer;
 import io.minAR.core.NodeTree;
 
 import java.io.*;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * A utility class, mainly helps in the serialization of object (self-explanatory)
+ * A {@link Kryo} is not thread-safe, hence every thread has one of its own, along with the buffers it writes and reads through;
+ * objects may then be serialized on many threads at once.
  * @see Kryo
  * @author nikhil
  * @since 0.0.1
@@ -18,12 +25,66 @@ import java.io.*;
 public class Serializer {
 
     private static final String TAG = "serializer";
-    private static Kryo kryo;
-    static {
-        kryo = new Kryo();
-        kryo.register(Node.class, 2);
-        kryo.register(NodeTree.class, 1);
+    /** The fields of {@link Node} written in the original, fully in-memory, archives */
+    private static final List<String> LEGACY_NODE_FIELDS = Arrays.asList("sub_nodes", "data", "path");
+    private static final ThreadLocal<Kryo> kryo = perThread(LEGACY_NODE_FIELDS);
+    /** Serializes the file tree contained in the trailer of streamed archives, see {@link NodeSerializer} */
+    private static final ThreadLocal<Kryo> trailer_kryo = perThread(null);
+    private static final ThreadLocal<Output> output = ThreadLocal.withInitial(() -> new Output(Streams.DEFAULT_BUFFER_SIZE));
+    private static final ThreadLocal<Input> input = ThreadLocal.withInitial(() -> new Input(Streams.DEFAULT_BUFFER_SIZE));
+
+    private static ThreadLocal<Kryo> perThread(List<String> node_fields){
+        return ThreadLocal.withInitial(() -> newKryo(node_fields));
+    }
+
+    /**
+     * @param node_fields the fields of {@link Node} to be serialized by a {@link FieldSerializer}, null for the compact {@link NodeSerializer}
+     */
+    private static Kryo newKryo(List<String> node_fields){
+        Kryo ret = new Kryo();
+        if(node_fields == null) {
+            ret.register(Node.class, new NodeSerializer(), 2);
+            ret.register(NodeTree.class, new NodeSerializer.Tree(), 1);
+            ret.register(CompactTree.class, new NodeSerializer.Compact(), 3);
+            return ret;
+        }
+        FieldSerializer<Node<?>> serializer = new FieldSerializer<>(ret, Node.class);
+        for(FieldSerializer.CachedField<?> field : serializer.getFields()){
+            if(!node_fields.contains(field.getField().getName())) serializer.removeField(field);
+        }
+        ret.register(Node.class, serializer, 2);
+        ret.register(NodeTree.class, 1);
         // Register Default classes here....
+        return ret;
+    }
+
+    /**
+     * Writes the object through the output buffer of the thread, closing the stream once done
+     */
+    private static void write(Kryo kryo, OutputStream os, Object obj){
+        Output output = Serializer.output.get();
+        output.setOutputStream(os);
+        try {
+            kryo.writeObject(output, obj);
+            output.close();
+        } finally {
+            output.setOutputStream(null);
+        }
+    }
+
+    /**
+     * Reads an object through the input buffer of the thread, closing the stream once done
+     */
+    private static <T> T read(Kryo kryo, InputStream is, Class<T> clazz){
+        Input input = Serializer.input.get();
+        input.setInputStream(is);
+        try {
+            T ret = kryo.readObject(input, clazz);
+            input.close();
+            return ret;
+        } finally {
+            input.setInputStream(null);
+        }
     }
 
     /**
@@ -32,9 +93,45 @@ public class Serializer {
      * @param obj the object to be serialized
      */
     public static void serialize(OutputStream os, Object obj){
-        Output output = new Output(os);
-        kryo.writeObject(output, obj);
-        output.close();
+        write(kryo.get(), os, obj);
+    }
+
+    /**
+     * Serialize the file tree of a streamed archive and write it into the output stream, as the trailer.
+     * @param os the output stream that will contain the trailer
+     * @param obj the object to be serialized
+     */
+    public static void serializeTrailer(OutputStream os, Object obj){
+        write(trailer_kryo.get(), os, obj);
+    }
+
+    /**
+     * Deserializes the file tree contained in the trailer of a streamed archive, either as a {@link NodeTree} or as a {@link CompactTree}
+     * @param is the input stream positioned at the trailer
+     * @param clazz the class of the object
+     * @param <T>
+     * @return the object
+     */
+    public static <T> T deserializeTrailer(InputStream is, Class<T> clazz){
+        return read(trailer_kryo.get(), is, clazz);
+    }
+
+    /**
+     * Deserializes the file tree contained in the trailer of a streamed archive
+     * @param is the input stream positioned at the trailer
+     * @param <T> the type of the user data of the nodes, none is serialized
+     * @return the file tree
+     */
+    public static <T> NodeTree<T> deserializeTrailer(InputStream is){
+        return fileTree(deserializeTrailer(is, NodeTree.class));
+    }
+
+    /**
+     * The user data of nodes is transient, hence a file tree deserialized holds none; it is a tree of any type of user data
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> NodeTree<T> fileTree(NodeTree<?> tree){
+        return (NodeTree<T>) tree;
     }
 
     /**
@@ -61,10 +158,17 @@ public class Serializer {
      * @return the object
      */
     public static <T> T deserialize(InputStream is, Class<T> clazz){
-        Input input = new Input(is);
-        T ret = kryo.readObject(input, clazz);
-        input.close();
-        return ret;
+        return read(kryo.get(), is, clazz);
+    }
+
+    /**
+     * Deserializes the file tree of an archive not streamed, which holds the fields of the nodes written by the original archives
+     * @param is the input stream containing the file tree after serialization
+     * @param <T> the type of the user data of the nodes, none is serialized
+     * @return the file tree
+     */
+    public static <T> NodeTree<T> deserializeTree(InputStream is){
+        return fileTree(deserialize(is, NodeTree.class));
     }
 
     /**
@@ -0,0 +1,378 @@
+package io.minAR.util;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.Checksum;
+
+/**
+ * A utility class, containing helper streams used while writing and reading archives piece by piece,
+ * rather than as a single <code>byte[]</code>
+ * @author nikhil
+ * @since 0.0.2
+ */
+public class Streams {
+
+    /** The default size of the buffers used while copying streams */
+    public static final int DEFAULT_BUFFER_SIZE = 0xffff;
+
+    /**
+     * Copy the contents of the {@link InputStream} into the {@link OutputStream}, through the given buffer.
+     * Neither of the streams are closed.
+     * @param in the stream to be read from
+     * @param out the stream to be written to
+     * @param buffer the buffer used for copying, its length limits the amount of data held at once
+     * @return the number of bytes copied
+     * @throws IOException if either of the streams fail
+     */
+    public static long copy(InputStream in, OutputStream out, byte[] buffer) throws IOException {
+        long total = 0;
+        for(int len = in.read(buffer); len != -1; len = in.read(buffer)){
+            out.write(buffer, 0, len);
+            total += len;
+        }
+        return total;
+    }
+
+    /**
+     * Copy the contents of the {@link InputStream} into the channel, from the given position onwards, through the given buffer.
+     * Writes are positional, hence several streams may be copied into different regions of one channel at once.
+     * @param in the stream to be read from, it is not closed
+     * @param out the channel to be written to
+     * @param position the position in the channel to start writing at
+     * @param buffer the buffer used for copying
+     * @return the number of bytes copied
+     * @throws IOException if either of them fail
+     */
+    public static long copy(InputStream in, FileChannel out, long position, byte[] buffer) throws IOException {
+        long total = 0;
+        for(int len = in.read(buffer); len != -1; len = in.read(buffer)){
+            ByteBuffer source = ByteBuffer.wrap(buffer, 0, len);
+            while (source.hasRemaining()) total += out.write(source, position + total);
+        }
+        return total;
+    }
+
+    /**
+     * Copy at most the given number of bytes of the {@link InputStream} into the {@link OutputStream}, through the given buffer.
+     * Neither of the streams are closed.
+     * @param in the stream to be read from
+     * @param out the stream to be written to
+     * @param length the number of bytes to be copied
+     * @param buffer the buffer used for copying
+     * @throws IOException if either of the streams fail, or the input ends before the bytes are copied
+     */
+    public static void copy(InputStream in, OutputStream out, long length, byte[] buffer) throws IOException {
+        while (length > 0){
+            int len = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+            if(len == -1) throw new EOFException(length + " bytes short of the expected length");
+            out.write(buffer, 0, len);
+            length -= len;
+        }
+    }
+
+    /**
+     * Skip exactly the given number of bytes of the {@link InputStream}.
+     * Streams that skip fewer bytes than asked, such as decompressing streams, are skipped until done.
+     * @param in the stream to be skipped
+     * @param length the number of bytes to be skipped
+     * @throws IOException if the stream ends before the bytes are skipped
+     */
+    public static void skipFully(InputStream in, long length) throws IOException {
+        while (length > 0){
+            long skipped = in.skip(length);
+            if(skipped <= 0) {
+                if(in.read() == -1) throw new EOFException(length + " bytes short of the expected length");
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+
+    /**
+     * Creates an {@link InputStream} over at most the given number of bytes of the stream, the rest of which is left unread.
+     * Closing the returned stream does not close the wrapped one.
+     * @param in the stream to be read from
+     * @param length the number of bytes to be read
+     * @return the stream
+     */
+    public static InputStream limit(InputStream in, long length){
+        return new InputStream() {
+            long remaining = length;
+
+            @Override
+            public int read() throws IOException {
+                if(remaining <= 0) return -1;
+                int ret = in.read();
+                if(ret != -1) remaining--;
+                return ret;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if(remaining <= 0) return -1;
+                int ret = in.read(b, off, (int) Math.min(len, remaining));
+                if(ret != -1) remaining -= ret;
+                return ret;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long ret = in.skip(Math.min(n, remaining));
+                remaining -= ret;
+                return ret;
+            }
+        };
+    }
+
+    /**
+     * Transfer the region of the channel into the target channel, with {@link FileChannel#transferTo(long, long, WritableByteChannel)};
+     * the contents are never copied onto the heap, and between files the OS may copy them without leaving the kernel.
+     * The position of the source is not changed, that of the target is advanced.
+     * @param source the channel to be read from
+     * @param position the position where the region starts
+     * @param length the length of the region
+     * @param target the channel to be written to
+     * @throws IOException if either of the channels fail, or the source ends before the region does
+     */
+    public static void transfer(FileChannel source, long position, long length, WritableByteChannel target) throws IOException {
+        while (length > 0){
+            long transferred = source.transferTo(position, length, target);
+            if(transferred <= 0 && position >= source.size()) throw new EOFException(length + " bytes short of the expected length");
+            position += transferred;
+            length -= transferred;
+        }
+    }
+
+    /**
+     * Creates a {@link BufferedInputStream} over the stream, whose buffer is taken out of the {@link Buffers} pool and returned to it on close
+     * @param in the stream to be buffered
+     * @param size the size of the buffer
+     * @return the buffered stream
+     */
+    public static InputStream buffered(InputStream in, int size){
+        byte[] pooled = Buffers.take(size);
+        return new BufferedInputStream(in, 1){
+            {
+                buf = pooled;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if(buf == null) return;
+                super.close();
+                Buffers.release(pooled);
+            }
+        };
+    }
+
+    /**
+     * Read from the channel, at the given position, until the buffer is full.
+     * @param channel the channel to be read from
+     * @param buffer the buffer to be filled
+     * @param position the position in the channel to start reading from
+     * @throws IOException if the channel ends before the buffer is full
+     */
+    public static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()){
+            int len = channel.read(buffer, position);
+            if(len == -1) throw new EOFException("Unexpected end of channel at " + position);
+            position += len;
+        }
+    }
+
+    /**
+     * Creates an {@link InputStream} over a region of the channel.
+     * Reads are positional, the position of the channel itself is never changed, hence several slices of one channel may be read at once.
+     * Closing the slice does not close the channel.
+     * @param channel the channel to be read from
+     * @param offset the position where the region starts
+     * @param length the length of the region
+     * @return the stream
+     */
+    public static InputStream slice(FileChannel channel, long offset, long length){
+        return new InputStream() {
+            long position = offset;
+            final long end = offset + length;
+
+            @Override
+            public int read() throws IOException {
+                byte[] single = new byte[1];
+                return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if(position >= end) return -1;
+                len = (int) Math.min(len, end - position);
+                int read = channel.read(ByteBuffer.wrap(b, off, len), position);
+                if(read == -1) throw new EOFException("Unexpected end of channel at " + position);
+                position += read;
+                return read;
+            }
+
+            @Override
+            public long skip(long n) {
+                long skipped = Math.max(0, Math.min(n, end - position));
+                position += skipped;
+                return skipped;
+            }
+
+            @Override
+            public int available() {
+                return (int) Math.min(Integer.MAX_VALUE, end - position);
+            }
+        };
+    }
+
+    /**
+     * Creates an {@link InputStream} over the remaining bytes of the buffer.
+     * The buffer itself is not modified, the stream reads from a duplicate of it.
+     * @param buffer the buffer to be read from
+     * @return the stream
+     */
+    public static InputStream of(ByteBuffer buffer){
+        ByteBuffer source = buffer.duplicate();
+        return new InputStream() {
+            @Override
+            public int read() {
+                return source.hasRemaining() ? source.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if(!source.hasRemaining()) return -1;
+                len = Math.min(len, source.remaining());
+                source.get(b, off, len);
+                return len;
+            }
+
+            @Override
+            public long skip(long n) {
+                int skipped = (int) Math.max(0, Math.min(n, source.remaining()));
+                source.position(source.position() + skipped);
+                return skipped;
+            }
+
+            @Override
+            public int available() {
+                return source.remaining();
+            }
+        };
+    }
+
+    /**
+     * Wraps the output stream such that closing the wrapper flushes, but does not close the wrapped stream.
+     * Useful when a stream that finishes itself on close (cipher, compression) is written onto a shared stream.
+     * @param out the stream to be shielded
+     * @return the shielded stream
+     */
+    public static OutputStream shield(OutputStream out){
+        return new FilterOutputStream(out){
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.flush();
+            }
+        };
+    }
+
+    /**
+     * An {@link OutputStream} that keeps a count of the bytes written through it.
+     * The count is used to record the offsets of the entries in the archive.
+     * If given a {@link Checksum}, it keeps that of the bytes written too, taken one entry at a time by {@link #takeChecksum()}.
+     */
+    public static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+        private final Checksum checksum;
+        /** The bytes written through the stream since the checksum was last taken */
+        private long checked;
+        /** The checksum of the bytes written by other means since it was last taken, -1 if none were; -2 if it is not known */
+        private long external = -1;
+
+        public CountingOutputStream(OutputStream out){
+            this(out, null);
+        }
+
+        /**
+         * @param checksum updated with the bytes written, null if none is kept
+         */
+        public CountingOutputStream(OutputStream out, Checksum checksum){
+            super(out);
+            this.checksum = checksum;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+            if(checksum != null) {
+                checksum.update(b);
+                checked++;
+                if(external >= 0) external = -2;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+            if(checksum != null) {
+                checksum.update(b, off, len);
+                checked += len;
+                if(external >= 0 && len > 0) external = -2;
+            }
+        }
+
+        /**
+         * Count bytes written onto the target of the stream by other means, such as a channel transfer; the stream must be flushed first.
+         * Their checksum is not known, hence neither is that taken next.
+         * @param length the number of bytes
+         */
+        public void written(long length) {
+            count += length;
+            if(length > 0) external = -2;
+        }
+
+        /**
+         * Count bytes written onto the target of the stream by other means, whose checksum is known; the stream must be flushed first.
+         * It is taken next as the checksum of the bytes, if nothing else is written before.
+         * @param length the number of bytes
+         * @param checksum the checksum of the bytes, of the same kind as that of the stream
+         */
+        public void written(long length, long checksum) {
+            count += length;
+            external = external == -1 && checked == 0 ? checksum : -2;
+        }
+
+        /**
+         * Takes the checksum of the bytes written since it was last taken, and starts afresh
+         * @return the checksum, -1 if it is not known, i.e, the stream keeps none or bytes of unknown checksum were written
+         */
+        public long takeChecksum() {
+            long ret = checksum == null || external == -2 ? -1 : external >= 0 ? external : checksum.getValue();
+            if(checksum != null) checksum.reset();
+            checked = 0;
+            external = -1;
+            return ret;
+        }
+
+        /**
+         * @return the number of bytes written so far
+         */
+        public long getCount() {
+            return count;
+        }
+    }
+
+}
@@ -0,0 +1,194 @@
+package io.minAR.util;
+
+import java.io.Closeable;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the tasks of a single operation on an {@link Executor} shared by any number of operations, rather than on threads started per operation.
+ * At most the given number of tasks run at once, the rest wait here rather than on the executor; hence the executor may be bounded.
+ * A task that has not started yet is run by the thread waiting for its result, see {@link Future#get()}; hence the operation goes on
+ * even if the executor runs none of its tasks, such as one whose threads are all taken by operations waiting for their tasks.
+ * <p>
+ * Stages, tasks running till the operation ends while waiting for each other, are handed to the executor at once instead, see {@link #start(String, Runnable)}.
+ * The thread waiting for a stage calls {@link #startLate()} once it has waited {@link #START_MILLIS}, the stages the executor has not started by then,
+ * or has rejected, run on the pool shared by every operation; hence the stages always run at once.
+ * Operations given no executor run their tasks on that pool too, its threads are daemons and an idle thread is kept for a minute.
+ * @author nikhil
+ * @since 0.0.2
+ */
+public final class Workers implements Closeable {
+
+    /** The milliseconds a stage may wait for a thread of the executor, see {@link #startLate()} */
+    public static final long START_MILLIS = 100;
+
+    /** The pool the tasks of operations given no executor run on */
+    private static final ThreadPoolExecutor SHARED = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread ret = new Thread(task, "minAR-worker-" + count.incrementAndGet());
+            ret.setDaemon(true);
+            return ret;
+        }
+    });
+
+    private final Executor executor;
+    private final int threads;
+    /** The tasks waiting for a thread, in the order submitted */
+    private final ConcurrentLinkedQueue<Task<?>> pending = new ConcurrentLinkedQueue<>();
+    /** The tasks and stages not done yet, cancelled once closed */
+    private final Set<Task<?>> live = ConcurrentHashMap.newKeySet();
+    /** The number of threads taking the pending tasks */
+    private final AtomicInteger running = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * @param executor the executor the tasks run on, null runs them on the pool shared by every operation
+     * @param threads the most tasks run at once, stages are not counted
+     */
+    public Workers(Executor executor, int threads){
+        if(threads <= 0) throw new IllegalArgumentException("Thread count must be positive: " + threads);
+        this.executor = executor != null ? executor : SHARED;
+        this.threads = threads;
+    }
+
+    /**
+     * Hands the task to a thread of the executor, once fewer than the given number of tasks are running
+     * @return the result of the task; waiting for it runs the task on the calling thread if no other thread has started it
+     */
+    public <T> Future<T> submit(Callable<T> task){
+        Task<T> ret = new Task<>(task, true);
+        if(closed) {
+            ret.cancel(false);
+            return ret;
+        }
+        live.add(ret);
+        pending.add(ret);
+        spread();
+        return ret;
+    }
+
+    /**
+     * Starts the stage on a thread of the executor at once, on the pool shared by every operation if the executor rejects it.
+     * The thread is named after the stage while it runs
+     * @param name the name of the stage
+     * @return the stage, cancelling it interrupts its thread
+     */
+    public Future<?> start(String name, Runnable stage){
+        Task<Void> ret = new Task<>(() -> {
+            Thread thread = Thread.currentThread();
+            String previous = thread.getName();
+            thread.setName(name);
+            try {
+                stage.run();
+            } finally {
+                thread.setName(previous);
+            }
+            return null;
+        }, false);
+        live.add(ret);
+        try {
+            executor.execute(ret);
+        } catch (RejectedExecutionException e) {
+            SHARED.execute(ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Runs the stages no thread of the executor has started yet on the pool shared by every operation,
+     * as the executor may be too busy to run them, such as one whose threads are all taken by operations waiting for their stages
+     */
+    public void startLate(){
+        if(executor == SHARED) return;
+        for(Task<?> task : live){
+            if(!task.runs_waiting && !task.started) SHARED.execute(task);
+        }
+    }
+
+    /**
+     * Hands the pending tasks to as many threads as may run at once
+     */
+    private void spread(){
+        for(int count = running.get(); count < threads && !pending.isEmpty() && !closed; count = running.get()){
+            if(!running.compareAndSet(count, count + 1)) continue;
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // The tasks are run by the threads waiting for them
+                running.decrementAndGet();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Runs the pending tasks till none are left, on a thread of the executor
+     */
+    private void drain(){
+        try {
+            for(Task<?> task = pending.poll(); task != null && !closed; task = pending.poll()) task.run();
+        } finally {
+            running.decrementAndGet();
+        }
+        // A task may have been submitted while this thread was done, but still counted
+        spread();
+    }
+
+    /**
+     * Cancels the tasks not started yet, and interrupts the tasks and stages still running
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for(Task<?> task = pending.poll(); task != null; task = pending.poll()) task.cancel(false);
+        for(Task<?> task : live) task.cancel(true);
+    }
+
+    /**
+     * A task or stage, it is no longer live once done
+     */
+    private final class Task<T> extends FutureTask<T> {
+        /** Whether the thread waiting for the task runs it if it has not started, stages wait for each other hence are never run so */
+        private final boolean runs_waiting;
+        /** Whether a thread has taken the task, it is run once all the same */
+        private volatile boolean started;
+
+        Task(Callable<T> callable, boolean runs_waiting){
+            super(callable);
+            this.runs_waiting = runs_waiting;
+        }
+
+        @Override
+        public void run() {
+            started = true;
+            super.run();
+        }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            // Does nothing if the task has started, or is done
+            if(runs_waiting) run();
+            return super.get();
+        }
+
+        @Override
+        protected void done() {
+            live.remove(this);
+        }
+    }
+}
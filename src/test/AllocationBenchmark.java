@@ -0,0 +1,51 @@
+package test;
+
+import io.minAR.ArchiveOptions;
+import io.minAR.MinAR;
+import io.minAR.util.Codec;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Measures the bytes allocated per archived file, while streaming and extracting a synthetic tree of {@link SyntheticTrees#manySmall} on the calling thread.
+ * Usage: <code>AllocationBenchmark [files] [file size]</code>, 2000 files of 4 KB by default.
+ * The first round of every case warms up, the second is reported.
+ */
+public class AllocationBenchmark {
+
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws IOException {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+        Path work = Files.createTempDirectory("minar_alloc");
+        File tree = SyntheticTrees.manySmall(work.resolve("tree").toFile(), files, size);
+        ArchiveOptions streamed = new ArchiveOptions(MinAR.FLAG.COMPRESSED, MinAR.FLAG.STREAMED);
+        measure("xz", work, tree, files, streamed, null);
+        measure("deflate", work, tree, files, streamed.withCodec(Codec.DEFLATE), null);
+        measure("deflate+aes", work, tree, files, streamed.withCodec(Codec.DEFLATE).withFlags(MinAR.FLAG.ENCRYPTED), "key");
+        measure("store", work, tree, files, new ArchiveOptions(MinAR.FLAG.STREAMED), null);
+    }
+
+    private static void measure(String name, Path work, File tree, int files, ArchiveOptions options, String key) throws IOException {
+        String archive = work.resolve(name.replace('+', '_')).toString();
+        String key_file = key != null ? archive + "_mar_secret" : null;
+        ArchiveOptions extract = key != null ? new ArchiveOptions(MinAR.FLAG.KEY_IS_FILE) : new ArchiveOptions();
+        long archived = 0, extracted = 0;
+        for(int round = 0; round < 2; round++){
+            long start = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+            MinAR.outputArchive(tree.getPath(), archive, options);
+            long middle = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+            MinAR.extractArchive(archive + ".mar", work.resolve(name + "_out").toString(), key_file, extract);
+            long end = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+            archived = middle - start;
+            extracted = end - middle;
+        }
+        System.out.println(String.format("%-12s archive %8d B/file   extract %8d B/file", name, archived / files, extracted / files));
+    }
+
+}
@@ -0,0 +1,279 @@
+package test;
+
+import io.minAR.ArchiveOptions;
+import io.minAR.MinAR;
+import io.minAR.core.CompactTree;
+import io.minAR.core.NodeTree;
+import io.minAR.core.Scanner;
+import io.minAR.util.Codec;
+import io.minAR.util.Compressor;
+import io.minAR.util.Crypt;
+import io.minAR.util.Serializer;
+import io.minAR.util.Streams;
+
+import javax.crypto.SecretKey;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks the compress, serialize, encrypt, tree walking and archive paths on synthetic data, see {@link SyntheticTrees}.
+ * Every case is run a number of times to warm up, then measured; the throughput, the latency percentiles,
+ * and the bytes allocated per operation by every thread are reported, similar to the <code>-prof gc</code> of JMH; hence those of the cases
+ * running on pools of threads too. Threads ending during an operation are left out, the pools of the archiver keep theirs alive for a minute.
+ * <p>
+ * Usage: <code>Benchmark [-w warmup] [-i iterations] [-s scale] [-c xz|deflate|store] [filter...]</code>
+ * <ul>
+ *     <li>warmup, the runs of every case not measured; 3 by default</li>
+ *     <li>iterations, the runs of every case measured; 10 by default</li>
+ *     <li>scale, multiplies the size of the inputs; 1 by default, i.e, 1 MB payloads and trees of about 8 to 64 MB</li>
+ *     <li>codec, of the archives; deflate by default, as xz takes minutes per run on the larger trees</li>
+ *     <li>filter, only the cases whose names contain any of them are run</li>
+ * </ul>
+ */
+public class Benchmark {
+
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    /** Discards the streams drained */
+    private static final OutputStream NULL = new OutputStream() {
+        @Override
+        public void write(int b) {}
+
+        @Override
+        public void write(byte[] b, int off, int len) {}
+    };
+    private static final byte[] DRAIN_BUFFER = new byte[Streams.DEFAULT_BUFFER_SIZE];
+
+    /**
+     * A single operation measured
+     */
+    interface Operation {
+        void run() throws Exception;
+    }
+
+    static class Case {
+        final String name;
+        /** The bytes processed per operation, 0 if throughput is not applicable */
+        final long bytes;
+        final Operation operation;
+
+        Case(String name, long bytes, Operation operation){
+            this.name = name;
+            this.bytes = bytes;
+            this.operation = operation;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int warmup = 3, iterations = 10, scale = 1;
+        Codec codec = Codec.DEFLATE;
+        ArrayList<String> filters = new ArrayList<>();
+        for(int x = 0; x < args.length; x++){
+            switch (args[x]) {
+                case "-w": warmup = Integer.parseInt(args[++x]); break;
+                case "-i": iterations = Integer.parseInt(args[++x]); break;
+                case "-s": scale = Integer.parseInt(args[++x]); break;
+                case "-c": codec = codec(args[++x]); break;
+                default: filters.add(args[x]);
+            }
+        }
+        Path work = Files.createTempDirectory("minar_bench");
+        List<Case> cases = new ArrayList<>();
+        addPayloadCases(cases, scale << 20);
+        addSerializerCases(cases, scale * 100000);
+        addTreeCases(cases, scale * 100000);
+        addArchiveCases(cases, work, scale, codec);
+        System.out.println(String.format(Locale.ROOT, "%-50s %6s %10s %10s %10s %10s %10s %14s %10s",
+                "case", "ops", "MB/s", "mean ms", "p50 ms", "p90 ms", "p99 ms", "alloc B/op", "alloc MB/s"));
+        for(Case c : cases){
+            if(!filters.isEmpty() && filters.stream().noneMatch(c.name::contains)) continue;
+            report(c, measure(c, warmup, iterations));
+        }
+    }
+
+    private static Codec codec(String name){
+        switch (name) {
+            case "xz": return Codec.XZ;
+            case "deflate": return Codec.DEFLATE;
+            case "store": return Codec.STORE;
+            default: throw new IllegalArgumentException("Unknown codec: " + name);
+        }
+    }
+
+    private static void addPayloadCases(List<Case> cases, int size) throws IOException {
+        byte[] text = SyntheticTrees.text(size), random = SyntheticTrees.random(size);
+        byte[] text_xz = Compressor.compress(new ByteArrayInputStream(text));
+        cases.add(new Case("compressor.compress.text", size, () -> Compressor.compress(new ByteArrayInputStream(text))));
+        cases.add(new Case("compressor.compress.random", size, () -> Compressor.compress(new ByteArrayInputStream(random))));
+        cases.add(new Case("compressor.decompress.text", size, () -> Compressor.decompress(new ByteArrayInputStream(text_xz))));
+        byte[] text_deflate = compress(Codec.DEFLATE, text);
+        cases.add(new Case("codec.deflate.compress.text", size, () -> compress(Codec.DEFLATE, text)));
+        cases.add(new Case("codec.deflate.decompress.text", size, () -> drain(Codec.DEFLATE.decompressStream(new ByteArrayInputStream(text_deflate)))));
+
+        SecretKey key = Crypt.generateKey();
+        byte[] sealed = encryptChunked(text, key);
+        cases.add(new Case("crypt.aes-gcm.encrypt", size, () -> encryptChunked(text, key)));
+        cases.add(new Case("crypt.aes-gcm.decrypt", size, () -> drain(Crypt.decryptChunked(new ByteArrayInputStream(sealed), key))));
+    }
+
+    private static void addSerializerCases(List<Case> cases, int nodes){
+        NodeTree<File> tree = SyntheticTrees.tree(nodes);
+        byte[] serialized = Serializer.serialize(tree);
+        ByteArrayOutputStream trailer = new ByteArrayOutputStream();
+        Serializer.serializeTrailer(trailer, tree);
+        byte[] serialized_trailer = trailer.toByteArray();
+        String name = "serializer." + nodes + "-nodes";
+        cases.add(new Case(name + ".serialize", serialized.length, () -> Serializer.serialize(tree)));
+        cases.add(new Case(name + ".deserialize", serialized.length, () -> Serializer.deserialize(serialized, NodeTree.class)));
+        cases.add(new Case(name + ".serialize-trailer", serialized_trailer.length, () -> Serializer.serializeTrailer(new ByteArrayOutputStream(), tree)));
+        cases.add(new Case(name + ".deserialize-trailer", serialized_trailer.length,
+                () -> Serializer.deserializeTrailer(new ByteArrayInputStream(serialized_trailer), NodeTree.class)));
+        cases.add(new Case(name + ".deserialize-trailer-compact", serialized_trailer.length,
+                () -> Serializer.deserializeTrailer(new ByteArrayInputStream(serialized_trailer), CompactTree.class)));
+        System.out.println(String.format(Locale.ROOT, "%s: %d bytes serialized, %d bytes trailer", name, serialized.length, serialized_trailer.length));
+    }
+
+    private static void addTreeCases(List<Case> cases, int nodes){
+        NodeTree<File> tree = SyntheticTrees.tree(nodes);
+        String name = "tree." + nodes + "-nodes";
+        cases.add(new Case(name + ".traverse", 0, () -> {
+            tree.setListener((node, max) -> {});
+            tree.traverse();
+        }));
+        cases.add(new Case(name + ".walk", 0, () -> tree.walk(new NodeTree.NodeVisitor<File>() {})));
+        cases.add(new Case(name + ".compact-build", 0, () -> CompactTree.of(tree)));
+        CompactTree compact = CompactTree.of(tree);
+        cases.add(new Case(name + ".compact-walk", 0, () -> compact.walk(new CompactTree.Visitor() {})));
+        // Far deeper than the call stack allows a recursive walk
+        NodeTree<File> deep = SyntheticTrees.deepTree(nodes);
+        cases.add(new Case("tree.deep-" + nodes + ".traverse", 0, () -> {
+            deep.setListener((node, max) -> {});
+            deep.traverse();
+        }));
+        cases.add(new Case("tree.deep-" + nodes + ".walk", 0, () -> deep.walk(new NodeTree.NodeVisitor<File>() {})));
+    }
+
+    private static void addArchiveCases(List<Case> cases, Path work, int scale, Codec codec) throws IOException {
+        File many_small = SyntheticTrees.manySmall(work.resolve("many-small").toFile(), 2000 * scale, 4096);
+        File few_huge = SyntheticTrees.fewHuge(work.resolve("few-huge").toFile(), 2, (32 << 20) * scale);
+        File incompressible = SyntheticTrees.incompressible(work.resolve("incompressible").toFile(), 4, (8 << 20) * scale);
+        cases.add(new Case("scan.many-small.walk", 0, () -> new Scanner(many_small).scan()));
+        Scanner parallel = new Scanner(many_small);
+        parallel.setThreads(4);
+        cases.add(new Case("scan.many-small.walk-4-threads", 0, parallel::scan));
+        ArchiveOptions options = new ArchiveOptions(MinAR.FLAG.COMPRESSED, MinAR.FLAG.STREAMED).withCodec(codec);
+        for(File tree : Arrays.asList(many_small, few_huge, incompressible)){
+            long bytes = size(tree);
+            String archive = work.resolve(tree.getName()).toString();
+            String name = "archive." + tree.getName() + "." + codec.getName();
+            cases.add(new Case(name + ".output", bytes, () -> MinAR.outputArchive(tree.getPath(), archive, options)));
+            cases.add(new Case(name + ".output-pipelined", bytes,
+                    () -> MinAR.outputArchive(tree.getPath(), archive + "-pipelined", options.withFlags(MinAR.FLAG.PIPELINED))));
+            // The archive is written once up front, hence extraction can be measured on its own
+            MinAR.outputArchive(tree.getPath(), archive, options);
+            String out = work.resolve(tree.getName() + "-out").toString();
+            cases.add(new Case(name + ".extract", bytes, () -> MinAR.extractArchive(archive + ".mar", out, null, new ArchiveOptions())));
+            cases.add(new Case(name + ".verify", bytes, () -> MinAR.verifyArchive(archive + ".mar", null, new ArchiveOptions())));
+            cases.add(new Case(name + ".verify-contents", bytes,
+                    () -> MinAR.verifyArchive(archive + ".mar", null, new ArchiveOptions(MinAR.FLAG.COMPARE_CONTENTS))));
+        }
+    }
+
+    /**
+     * Runs the case, returning the time taken and the bytes allocated by every measured operation, on any thread
+     */
+    private static long[][] measure(Case c, int warmup, int iterations) throws Exception {
+        for(int x = 0; x < warmup; x++) c.operation.run();
+        long[] nanos = new long[iterations], allocated = new long[iterations];
+        for(int x = 0; x < iterations; x++){
+            Map<Long, Long> bytes = allocatedBytes();
+            long start = System.nanoTime();
+            c.operation.run();
+            nanos[x] = System.nanoTime() - start;
+            for(Map.Entry<Long, Long> thread : allocatedBytes().entrySet()){
+                // Threads started during the operation allocated everything they have
+                allocated[x] += thread.getValue() - bytes.getOrDefault(thread.getKey(), 0L);
+            }
+        }
+        return new long[][]{nanos, allocated};
+    }
+
+    /**
+     * @return the bytes allocated so far by every live thread, keyed by its id
+     */
+    private static Map<Long, Long> allocatedBytes(){
+        long[] ids = THREADS.getAllThreadIds();
+        long[] bytes = THREADS.getThreadAllocatedBytes(ids);
+        Map<Long, Long> ret = new HashMap<>();
+        // A thread that ended since its id was taken has none
+        for(int x = 0; x < ids.length; x++) if(bytes[x] >= 0) ret.put(ids[x], bytes[x]);
+        return ret;
+    }
+
+    private static void report(Case c, long[][] measured){
+        long[] nanos = measured[0].clone(), allocated = measured[1];
+        Arrays.sort(nanos);
+        double total_nanos = 0, total_allocated = 0;
+        for(int x = 0; x < nanos.length; x++){
+            total_nanos += nanos[x];
+            total_allocated += allocated[x];
+        }
+        double mean = total_nanos / nanos.length;
+        double seconds = total_nanos / 1e9;
+        System.out.println(String.format(Locale.ROOT, "%-50s %6d %10.1f %10.2f %10.2f %10.2f %10.2f %14.0f %10.1f",
+                c.name, nanos.length, c.bytes > 0 ? c.bytes / mean * 1e9 / (1 << 20) : Double.NaN, mean / 1e6,
+                percentile(nanos, 50) / 1e6, percentile(nanos, 90) / 1e6, percentile(nanos, 99) / 1e6,
+                total_allocated / nanos.length, total_allocated / seconds / (1 << 20)));
+    }
+
+    /**
+     * @param sorted the measurements, in ascending order
+     * @return the nearest rank percentile
+     */
+    private static long percentile(long[] sorted, int percentile){
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    private static byte[] compress(Codec codec, byte[] data) throws IOException {
+        ByteArrayOutputStream ret = new ByteArrayOutputStream();
+        try (OutputStream out = codec.compressStream(ret)){
+            out.write(data);
+        }
+        return ret.toByteArray();
+    }
+
+    private static byte[] encryptChunked(byte[] data, SecretKey key) throws IOException {
+        ByteArrayOutputStream ret = new ByteArrayOutputStream();
+        try (OutputStream out = Crypt.encryptChunked(ret, key)){
+            out.write(data);
+        }
+        return ret.toByteArray();
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        try (InputStream stream = in){
+            Streams.copy(stream, NULL, DRAIN_BUFFER);
+        }
+    }
+
+    private static long size(File dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir.toPath())){
+            return paths.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+        }
+    }
+
+}
@@ -0,0 +1,242 @@
+package test;
+
+import io.minAR.ArchiveOptions;
+import io.minAR.MinAR;
+import io.minAR.core.NodeTree;
+import io.minAR.core.Verification;
+import io.minAR.util.Codec;
+import io.minAR.util.Crypt;
+import io.minAR.util.Serializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs many archive and extract jobs at once in one JVM, on synthetic data, see {@link SyntheticTrees}; every job writes an archive, extracts it and verifies it.
+ * Every archive not encrypted must be byte-identical to the one written by a single thread beforehand, every extraction must match the directory archived.
+ * The serializer and the cipher are hammered on their own as well. Exits with 1 if any job fails.
+ * <p>
+ * Usage: <code>StressCheck [-j jobs] [-r rounds] [-s scale]</code>
+ * <ul>
+ *     <li>jobs, the jobs of every kind run at once; 8 by default</li>
+ *     <li>rounds, the times every job is run; 2 by default</li>
+ *     <li>scale, multiplies the size of the data; 1 by default, i.e, about 12 MB</li>
+ * </ul>
+ */
+public class StressCheck {
+
+    /**
+     * A single job, returns what went wrong, null if nothing did
+     */
+    interface Job {
+        String run(int id) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int jobs = 8, rounds = 2, scale = 1;
+        for(int x = 0; x < args.length; x++){
+            switch (args[x]) {
+                case "-j": jobs = Integer.parseInt(args[++x]); break;
+                case "-r": rounds = Integer.parseInt(args[++x]); break;
+                case "-s": scale = Integer.parseInt(args[++x]); break;
+                default: throw new IllegalArgumentException("Unknown argument: " + args[x]);
+            }
+        }
+        Path work = Files.createTempDirectory("minar_stress");
+        File data = work.resolve("data").toFile();
+        SyntheticTrees.manySmall(new File(data, "small"), 300 * scale, 4096);
+        SyntheticTrees.fewHuge(new File(data, "huge"), 2, (4 << 20) * scale);
+        SyntheticTrees.incompressible(new File(data, "random"), 2, (1 << 20) * scale);
+
+        ArchiveOptions streamed = new ArchiveOptions(MinAR.FLAG.COMPRESSED, MinAR.FLAG.STREAMED).withCodec(Codec.DEFLATE);
+        Map<String, ArchiveOptions> modes = new LinkedHashMap<>();
+        modes.put("streamed", streamed);
+        modes.put("streamed-xz", streamed.withCodec(Codec.XZ));
+        modes.put("parallel", streamed.withThreads(2));
+        modes.put("pipelined", streamed.withFlags(MinAR.FLAG.PIPELINED).withPipeline(2, 2, 1));
+        modes.put("solid", streamed.withFlags(MinAR.FLAG.SOLID).withSolidBlockSize(256 << 10));
+        modes.put("deduplicated", streamed.withFlags(MinAR.FLAG.DEDUPLICATED));
+        modes.put("split", streamed.withFlags(MinAR.FLAG.SPLIT).withSplitSize(1 << 20).withThreads(2));
+        modes.put("in-memory", new ArchiveOptions(MinAR.FLAG.COMPRESSED));
+        modes.put("encrypted", streamed.withFlags(MinAR.FLAG.ENCRYPTED, MinAR.FLAG.KEY_IS_FILE));
+        modes.put("encrypted-in-memory", new ArchiveOptions(MinAR._default_enc_file));
+
+        // The jobs of every kind, along with what they are checked against
+        Map<String, Job> kinds = new LinkedHashMap<>();
+        for(Map.Entry<String, ArchiveOptions> mode : modes.entrySet()){
+            ArchiveOptions options = mode.getValue();
+            boolean encrypted = options.isFlagged(MinAR.FLAG.ENCRYPTED);
+            byte[] expected = null;
+            if(!encrypted) {
+                String reference = work.resolve(mode.getKey() + "-reference").toString();
+                MinAR.outputArchive(data.getPath(), reference, options);
+                expected = Files.readAllBytes(new File(reference + ".mar").toPath());
+            }
+            byte[] archive_bytes = expected;
+            kinds.put("archive." + mode.getKey(), id -> archiveJob(work, data, mode.getKey() + "-" + id, options, archive_bytes));
+        }
+        NodeTree<File> tree = SyntheticTrees.tree(20000);
+        ByteArrayOutputStream trailer = new ByteArrayOutputStream();
+        Serializer.serializeTrailer(trailer, tree);
+        byte[] expected_trailer = trailer.toByteArray();
+        kinds.put("serializer.trailer", id -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Serializer.serializeTrailer(out, tree);
+            if(!Arrays.equals(out.toByteArray(), expected_trailer)) return "the trailer differs from the one serialized by a single thread";
+            ByteArrayOutputStream again = new ByteArrayOutputStream();
+            Serializer.serializeTrailer(again, Serializer.deserializeTrailer(new ByteArrayInputStream(expected_trailer), NodeTree.class));
+            return Arrays.equals(again.toByteArray(), expected_trailer) ? null : "the trailer differs once deserialized and serialized again";
+        });
+        // Directories the include globs leave empty, and empty ones, must be extracted as directories; either way of scanning, and either layout
+        File filtered = work.resolve("filtered").toFile();
+        for(String dir : new String[]{"a", "b", "empty"}) Files.createDirectories(filtered.toPath().resolve(dir));
+        Files.write(filtered.toPath().resolve("a/x.java"), SyntheticTrees.text(1024));
+        Files.write(filtered.toPath().resolve("b/y.txt"), SyntheticTrees.text(1024));
+        Map<String, ArchiveOptions> filtered_modes = new LinkedHashMap<>();
+        filtered_modes.put("streamed", streamed.withInclude("*.java"));
+        filtered_modes.put("streamed-scan-threads", streamed.withInclude("*.java").withScanThreads(4));
+        filtered_modes.put("in-memory", new ArchiveOptions(MinAR.FLAG.COMPRESSED).withInclude("*.java"));
+        for(Map.Entry<String, ArchiveOptions> mode : filtered_modes.entrySet()){
+            kinds.put("filtered." + mode.getKey(), id -> filteredJob(work, filtered, "filtered-" + mode.getKey() + "-" + id, mode.getValue()));
+        }
+        byte[] text = SyntheticTrees.text(1 << 20);
+        kinds.put("crypt.in-memory", id -> {
+            Crypt.ENC_OBJECT encrypted = Crypt.encrypt(text);
+            return Arrays.equals(Crypt.decrypt(encrypted), text) ? null : "the data differs once encrypted and decrypted";
+        });
+
+        ExecutorService pool = Executors.newFixedThreadPool(jobs);
+        int failed = 0;
+        try {
+            for(int round = 0; round < rounds; round++){
+                // Every job of every kind is submitted at once, such that different kinds of jobs run alongside each other too
+                Map<String, List<Future<String>>> running = new LinkedHashMap<>();
+                long start = System.nanoTime();
+                for(Map.Entry<String, Job> kind : kinds.entrySet()){
+                    List<Future<String>> futures = new ArrayList<>();
+                    for(int x = 0; x < jobs; x++){
+                        int id = x;
+                        futures.add(pool.submit(() -> {
+                            try {
+                                return kind.getValue().run(id);
+                            } catch (Exception | Error e) {
+                                return e.toString();
+                            }
+                        }));
+                    }
+                    running.put(kind.getKey(), futures);
+                }
+                for(Map.Entry<String, List<Future<String>>> kind : running.entrySet()){
+                    int ok = 0;
+                    for(Future<String> future : kind.getValue()){
+                        String problem = future.get();
+                        if(problem == null) ok++;
+                        else System.out.println("FAILED " + kind.getKey() + ": " + problem);
+                    }
+                    failed += kind.getValue().size() - ok;
+                    System.out.println(String.format(Locale.ROOT, "round %d %-40s %3d/%d ok", round, kind.getKey(), ok, kind.getValue().size()));
+                }
+                System.out.println(String.format(Locale.ROOT, "round %d took %d ms", round, (System.nanoTime() - start) / 1000000));
+            }
+        } finally {
+            pool.shutdownNow();
+            delete(work);
+        }
+        System.out.println(failed == 0 ? "All jobs passed" : failed + " jobs failed");
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    /**
+     * Writes the archive of the directory, compares it with the expected bytes, then extracts and verifies it
+     * @param expected the archive written by a single thread, null if it cannot be compared, i.e, it is encrypted
+     */
+    private static String archiveJob(Path work, File data, String name, ArchiveOptions options, byte[] expected) throws IOException {
+        String archive = work.resolve(name).toString();
+        File extracted = work.resolve(name + "-extracted").toFile();
+        try {
+            MinAR.outputArchive(data.getPath(), archive, options);
+            if(expected != null && !Arrays.equals(Files.readAllBytes(new File(archive + ".mar").toPath()), expected))
+                return name + ": the archive differs from the one written by a single thread";
+            String key = options.isFlagged(MinAR.FLAG.ENCRYPTED) ? archive + "_mar_secret" : null;
+            MinAR.extractArchive(archive + ".mar", extracted.getPath(), key, options);
+            String problem = compare(data.toPath(), extracted.toPath());
+            if(problem != null) return name + ": " + problem;
+            if(options.isFlagged(MinAR.FLAG.STREAMED)) {
+                Verification verification = MinAR.verifyArchive(archive + ".mar", key, options);
+                if(!verification.isIntact()) return name + ": " + verification.getProblems();
+            }
+            return null;
+        } finally {
+            Files.deleteIfExists(new File(archive + ".mar").toPath());
+            Files.deleteIfExists(new File(archive + "_mar_secret.key").toPath());
+            delete(extracted.toPath());
+        }
+    }
+
+    /**
+     * Writes the archive of the directory holding a/x.java, b/y.txt and empty/, including only *.java, then checks that b and empty are extracted as directories
+     */
+    private static String filteredJob(Path work, File data, String name, ArchiveOptions options) throws IOException {
+        String archive = work.resolve(name).toString();
+        Path extracted = work.resolve(name + "-extracted");
+        try {
+            MinAR.outputArchive(data.getPath(), archive, options);
+            MinAR.extractArchive(archive + ".mar", extracted.toString(), null, options);
+            if(!Files.isRegularFile(extracted.resolve("a/x.java"))) return name + ": a/x.java is not extracted";
+            if(Files.exists(extracted.resolve("b/y.txt"))) return name + ": b/y.txt is extracted, though not included";
+            for(String dir : new String[]{"b", "empty"}){
+                if(!Files.isDirectory(extracted.resolve(dir))) return name + ": " + dir + " is not extracted as a directory";
+            }
+            return null;
+        } finally {
+            Files.deleteIfExists(new File(archive + ".mar").toPath());
+            delete(extracted);
+        }
+    }
+
+    /**
+     * @return what differs between the files of the directories, null if nothing does
+     */
+    private static String compare(Path expected, Path actual) throws IOException {
+        List<Path> files = files(expected), extracted = files(actual);
+        if(!files.equals(extracted)) return "extracted " + extracted.size() + " files, rather than " + files.size();
+        for(Path file : files){
+            if(!Arrays.equals(Files.readAllBytes(expected.resolve(file)), Files.readAllBytes(actual.resolve(file)))) return file + " differs once extracted";
+        }
+        return null;
+    }
+
+    /**
+     * @return the paths of the files beneath the directory, relative to it and sorted; none if it does not exist
+     */
+    private static List<Path> files(Path dir) throws IOException {
+        if(!Files.exists(dir)) return new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(dir)){
+            return paths.filter(Files::isRegularFile).map(dir::relativize).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static void delete(Path dir) throws IOException {
+        if(!Files.exists(dir)) return;
+        try (Stream<Path> paths = Files.walk(dir)){
+            for(Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) Files.delete(path);
+        }
+    }
+
+}
@@ -0,0 +1,136 @@
+package test;
+
+import io.minAR.core.Node;
+import io.minAR.core.NodeTree;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates the data and the directory trees the benchmarks run on, from a fixed seed; hence every run measures the same inputs.
+ * <ul>
+ *     <li>many small files, of text</li>
+ *     <li>a few huge files, of text</li>
+ *     <li>incompressible files, of random bytes</li>
+ * </ul>
+ */
+public class SyntheticTrees {
+
+    private static final long SEED = 17;
+
+    /**
+     * @return text of the given size, words drawn from a small vocabulary; compresses several times over
+     */
+    public static byte[] text(int size){
+        Random random = new Random(SEED);
+        String[] words = new String[512];
+        for(int x = 0; x < words.length; x++) words[x] = Long.toString(random.nextLong() & 0xffffffL, 36);
+        byte[] ret = new byte[size];
+        int position = 0;
+        while (position < size) {
+            String word = words[random.nextInt(words.length)];
+            for(int x = 0; x < word.length() && position < size; x++) ret[position++] = (byte) word.charAt(x);
+            if(position < size) ret[position++] = ' ';
+        }
+        return ret;
+    }
+
+    /**
+     * @return random bytes of the given size, which do not compress
+     */
+    public static byte[] random(int size){
+        byte[] ret = new byte[size];
+        new Random(SEED).nextBytes(ret);
+        return ret;
+    }
+
+    /**
+     * Creates many small text files, spread over 20 directories
+     * @return the directory
+     */
+    public static File manySmall(File dir, int files, int size) throws IOException {
+        byte[] contents = text(size * 16);
+        for(int x = 0; x < files; x++){
+            File sub = new File(dir, "d" + x % 20);
+            sub.mkdirs();
+            // Every file is a different window of the text
+            int start = (x * 131) % (contents.length - size);
+            Files.write(new File(sub, "f" + x + ".txt").toPath(), Arrays.copyOfRange(contents, start, start + size));
+        }
+        return dir;
+    }
+
+    /**
+     * Creates a few huge text files
+     * @return the directory
+     */
+    public static File fewHuge(File dir, int files, int size) throws IOException {
+        dir.mkdirs();
+        byte[] contents = text(size);
+        for(int x = 0; x < files; x++){
+            contents[x] ^= 1;
+            Files.write(new File(dir, "dump" + x + ".sql").toPath(), contents);
+        }
+        return dir;
+    }
+
+    /**
+     * Creates files of random bytes
+     * @return the directory
+     */
+    public static File incompressible(File dir, int files, int size) throws IOException {
+        dir.mkdirs();
+        byte[] contents = random(size);
+        for(int x = 0; x < files; x++){
+            contents[x] ^= 1;
+            Files.write(new File(dir, "blob" + x + ".bin").toPath(), contents);
+        }
+        return dir;
+    }
+
+    /**
+     * Creates a file tree, without any files behind it, of directories of 100 nodes each
+     * @param nodes the number of file nodes
+     * @return the tree
+     */
+    public static NodeTree<File> tree(int nodes){
+        ArrayList<Node<File>> directories = new ArrayList<>();
+        ArrayList<Node<File>> files = new ArrayList<>();
+        for(int x = 0; x < nodes; x++){
+            String directory = "/backup/host" + x / 10000 + "/dir" + x / 100;
+            files.add(Node.newNode(null, null, directory + "/file" + x + ".dat", (Node<File>[]) null));
+            if(files.size() == 100 || x == nodes - 1) {
+                Node<File> parent = Node.newNode(null, null, directory, (Node<File>[]) null);
+                parent.setSub_nodes(files);
+                directories.add(parent);
+                files = new ArrayList<>();
+            }
+        }
+        Node<File> root = Node.newNode(null, null, "/", (Node<File>[]) null);
+        root.setSub_nodes(directories);
+        return new NodeTree<>(root);
+    }
+
+    /**
+     * Creates a chain of directories, each the only sub node of the one above; their paths are not nested, as those would take memory quadratic in the depth
+     * @param depth the number of directories
+     * @return the tree
+     */
+    public static NodeTree<File> deepTree(int depth){
+        Node<File> root = Node.newNode(null, null, "/", (Node<File>[]) null);
+        Node<File> parent = root;
+        for(int x = 0; x < depth; x++){
+            Node<File> node = Node.newNode(null, null, "/d" + x, (Node<File>[]) null);
+            ArrayList<Node<File>> sub_nodes = new ArrayList<>();
+            sub_nodes.add(node);
+            parent.setSub_nodes(sub_nodes);
+            parent = node;
+        }
+        return new NodeTree<>(root);
+    }
+
+}